@@ -1,19 +1,45 @@
 package com.renyu.android_image_picker;
 
+import com.renyu.android_image_picker.common.BitmapHelp;
+import com.renyu.android_image_picker.common.MemoryTrimManager;
+
+import android.annotation.SuppressLint;
 import android.app.Application;
 
 public class APApplication extends Application {
 
 	public static APApplication application=null;
 	
+	private MemoryTrimManager memoryTrimManager=null;
+
 	@Override
 	public void onCreate() {
 		// TODO Auto-generated method stub
 		super.onCreate();
 		application=this;
+		//内存紧张时缩小图片缓存
+		memoryTrimManager=new MemoryTrimManager(BitmapHelp.getBitmapUtils(this));
+		memoryTrimManager.register(this);
+	}
+
+	@SuppressLint("NewApi")
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		memoryTrimManager.onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		memoryTrimManager.onLowMemory();
 	}
 	
 	public static APApplication getAPApplication() {
 		return application;
 	}
+
+	public MemoryTrimManager getMemoryTrimManager() {
+		return memoryTrimManager;
+	}
 }
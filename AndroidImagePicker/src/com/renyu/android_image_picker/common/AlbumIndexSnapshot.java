@@ -0,0 +1,152 @@
+/**
+ * AlbumIndexSnapshot.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.renyu.android_image_picker.model.ImageGroup;
+
+/**
+ * 相册索引快照，保存在程序私有目录下的二进制文件中
+ * <p>
+ * 启动时先用快照显示相册，再由{@link ImageLoadTask}根据_ID和DATE_MODIFIED水位只读取新增的图片
+ * <p>
+ * 文件格式：MAGIC, VERSION, maxId, maxDateModified, imageCount, groupCount, 之后每个分组依次为文件夹路径、图片数量、各图片的_ID和文件名
+ */
+public class AlbumIndexSnapshot {
+
+    private static final String FILE_NAME = "album_index.bin";
+
+    private static final int MAGIC = 0x414c4258;
+
+    private static final int VERSION = 2;
+
+    /**
+     * 所有图片分组
+     */
+    public ArrayList<ImageGroup> groups = new ArrayList<ImageGroup>();
+
+    /**
+     * 已读取图片的最大_ID
+     */
+    public long maxId = 0;
+
+    /**
+     * 已读取图片的最大DATE_MODIFIED(秒)
+     */
+    public long maxDateModified = 0;
+
+    /**
+     * 图片总数，用于判断是否有图片被删除
+     */
+    public int imageCount = 0;
+
+    public static File getFile() {
+        return new File(FileUtil.LOCAL_PATH, FILE_NAME);
+    }
+
+    /**
+     * 读取快照
+     *
+     * @return 快照不存在或已损坏时返回null
+     */
+    public static AlbumIndexSnapshot read() {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16 * 1024));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            AlbumIndexSnapshot snapshot = new AlbumIndexSnapshot();
+            snapshot.maxId = in.readLong();
+            snapshot.maxDateModified = in.readLong();
+            snapshot.imageCount = in.readInt();
+            int groupCount = in.readInt();
+            snapshot.groups.ensureCapacity(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                ImageGroup group = new ImageGroup();
+                group.setDirPath(in.readUTF());
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    long id = in.readLong();
+                    group.addImage(id, in.readUTF());
+                }
+                snapshot.groups.add(group);
+            }
+            return snapshot;
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入快照，先写临时文件再重命名，避免中途被杀导致文件损坏
+     *
+     * @return 写入成功返回true
+     */
+    public boolean write() {
+        File file = getFile();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 16 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(maxId);
+            out.writeLong(maxDateModified);
+            out.writeInt(imageCount);
+            out.writeInt(groups.size());
+            for (ImageGroup group : groups) {
+                out.writeUTF(group.getDirPath());
+                int count = group.getImageCount();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(group.getId(i));
+                    out.writeUTF(group.getName(i));
+                }
+            }
+            out.close();
+            out = null;
+            return tmp.renameTo(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
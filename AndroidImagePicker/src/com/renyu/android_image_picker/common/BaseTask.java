@@ -10,6 +10,7 @@ package com.renyu.android_image_picker.common;
 
 import android.os.AsyncTask;
 
+import com.renyu.android_image_picker.common.OnTaskProgressListener;
 import com.renyu.android_image_picker.common.OnTaskResultListener;
 
 /**
@@ -17,7 +18,7 @@ import com.renyu.android_image_picker.common.OnTaskResultListener;
  * 
  * @author likebamboo
  */
-public abstract class BaseTask extends AsyncTask<Void, Void, Boolean> {
+public abstract class BaseTask extends AsyncTask<Void, Object, Boolean> {
 
     /**
      * 失败的时候的错误提示
@@ -39,6 +40,16 @@ public abstract class BaseTask extends AsyncTask<Void, Void, Boolean> {
      */
     protected OnTaskResultListener resultListener = null;
 
+    @Override
+    protected void onProgressUpdate(Object... values) {
+        if (interrupt || !(resultListener instanceof OnTaskProgressListener)) {
+            return;
+        }
+        for (Object value : values) {
+            ((OnTaskProgressListener)resultListener).onProgress(value);
+        }
+    }
+
     @Override
     protected void onPostExecute(Boolean success) {
         if (!interrupt && resultListener != null) {
@@ -1,8 +1,13 @@
 package com.renyu.android_image_picker.common;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
 import com.lidroid.xutils.BitmapUtils;
+import com.lidroid.xutils.bitmap.download.MediaStoreThumbnailSource;
+import com.lidroid.xutils.bitmap.download.ThumbnailSource;
 
 public class BitmapHelp {
 	
@@ -21,6 +26,11 @@ public class BitmapHelp {
     public static BitmapUtils getBitmapUtils(Context appContext) {
         if (bitmapUtils == null) {
             bitmapUtils = new BitmapUtils(appContext);
+            //目标不超过160像素时优先使用EXIF内嵌缩略图，更大的目标（如300x300的列表）直接使用系统生成的缩略图
+            List<ThumbnailSource> sources = new ArrayList<ThumbnailSource>();
+            sources.add(new ExifFastThumbnailSource());
+            sources.add(new MediaStoreThumbnailSource());
+            bitmapUtils.configThumbnailSources(sources);
             //改方法可以解决图片加载不出来的bug
             //bitmapUtils.clearCache();
         }
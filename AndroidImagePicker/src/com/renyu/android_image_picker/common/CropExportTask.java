@@ -0,0 +1,139 @@
+/**
+ * CropExportTask.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.renyu.android_image_picker.myview.CropImageView3;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * 裁剪并导出头像的异步任务
+ * <p>
+ * 所有导出任务在同一个后台线程中依次执行，进度以百分比回调给{@link OnTaskProgressListener}，成功时结果为导出的文件路径
+ */
+public class CropExportTask extends BaseTask {
+
+    /**
+     * 排队等待的导出任务数上限
+     */
+    private static final int MAX_QUEUED_TASKS = 2;
+
+    private static final ThreadPoolExecutor EXPORT_EXECUTOR = new ThreadPoolExecutor(1, 1, 0L,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TASKS));
+
+    public static final int PROGRESS_CROPPED = 40;
+
+    public static final int PROGRESS_ENCODED = 90;
+
+    public static final int PROGRESS_FINISHED = 100;
+
+    private CropImageView3 mCropView = null;
+
+    /**
+     * 开始时在主线程记录的裁剪状态，后台线程只读取它
+     */
+    private CropImageView3.CropSpec mCropSpec = null;
+
+    private String mDestPath = null;
+
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+
+    private int mQuality = 85;
+
+    /**
+     * @param cropView 裁剪控件
+     * @param destPath 导出的文件路径
+     * @param format 输出格式
+     * @param quality 压缩质量
+     * @param listener
+     */
+    public CropExportTask(CropImageView3 cropView, String destPath, Bitmap.CompressFormat format, int quality,
+            OnTaskResultListener listener) {
+        super();
+        mCropView = cropView;
+        mDestPath = destPath;
+        mFormat = format;
+        mQuality = quality;
+        setOnResultListener(listener);
+    }
+
+    /**
+     * 在导出线程中执行，队列已满时直接回调失败；必须在主线程调用，裁剪的是调用时选择框中的内容
+     *
+     * @return 是否已经加入导出队列，返回false时任务不会再执行，需要重新创建
+     */
+    @SuppressLint("NewApi")
+    public boolean start() {
+        mCropSpec = mCropView.captureCropSpec();
+        try {
+            if (Build.VERSION.SDK_INT >= 11) {
+                executeOnExecutor(EXPORT_EXECUTOR);
+            } else {
+                execute();
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (resultListener != null) {
+                resultListener.onResult(false, "正在导出，请稍后再试", null);
+            }
+            return false;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        Bitmap bitmap = null;
+        try {
+            // 排队期间界面已经关闭
+            if (isCancelled()) {
+                return false;
+            }
+            bitmap = CropImageView3.getCropImage(mCropSpec);
+            if (bitmap == null) {
+                error = "图片规格不正确";
+                return false;
+            }
+            publishProgress(PROGRESS_CROPPED);
+
+            if (isCancelled()) {
+                return false;
+            }
+            if (!FileUtil.writeImageAtomically(bitmap, mDestPath, mFormat, mQuality)) {
+                error = "图片保存失败";
+                return false;
+            }
+            publishProgress(PROGRESS_ENCODED);
+            if (isCancelled()) {
+                FileUtil.deleteFile(mDestPath);
+                return false;
+            }
+            result = mDestPath;
+            publishProgress(PROGRESS_FINISHED);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = "图片规格不正确";
+            return false;
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * ExifFastThumbnailSource.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import com.android.mms.exif.ExifThumbnailReader;
+import com.lidroid.xutils.bitmap.download.ExifThumbnailSource;
+
+/**
+ * 读取JPEG中内嵌的EXIF缩略图
+ * <p>
+ * 只读取文件开头的64KB并只解析IFD1，不会像系统ExifInterface那样解析整个EXIF段
+ */
+public class ExifFastThumbnailSource extends ExifThumbnailSource {
+
+    @Override
+    protected byte[] getThumbnailBytes(String path) throws Exception {
+        return ExifThumbnailReader.readThumbnail(path);
+    }
+}
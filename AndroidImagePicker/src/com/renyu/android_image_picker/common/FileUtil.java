@@ -473,4 +473,52 @@ public final class FileUtil
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * 先写到临时文件再重命名，目标文件要么是旧的完整文件，要么是新的完整文件
+	 * 
+	 * @param bitmap
+	 * @param destPath
+	 * @param format 输出格式
+	 * @param quality 压缩质量
+	 * @return 写入成功返回true
+	 */
+	public static boolean writeImageAtomically(Bitmap bitmap,String destPath,Bitmap.CompressFormat format,int quality)
+	{
+		File destFile=new File(destPath);
+		File tempFile=new File(destPath+".tmp");
+		FileOutputStream out=null;
+		try {
+			if (!destFile.getParentFile().exists())
+			{
+				destFile.getParentFile().mkdirs();
+			}
+			out=new FileOutputStream(tempFile);
+			if (!bitmap.compress(format, quality, out))
+			{
+				return false;
+			}
+			out.flush();
+			out.getFD().sync();
+			out.close();
+			out=null;
+			return tempFile.renameTo(destFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (out!=null)
+			{
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			if (tempFile.exists())
+			{
+				tempFile.delete();
+			}
+		}
+	}
 }
@@ -0,0 +1,154 @@
+/**
+ * ImageChangeObserver.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.util.List;
+
+import com.renyu.android_image_picker.model.AlbumStore;
+import com.renyu.android_image_picker.model.AlbumStore.OnAlbumChangeListener;
+import com.renyu.android_image_picker.model.ImageDelta;
+import com.renyu.android_image_picker.model.ImageGroup;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.AsyncTask.Status;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 监听MediaStore图片变化，合并短时间内的多次通知后只查询增量，并应用到{@link AlbumStore}
+ */
+public class ImageChangeObserver extends ContentObserver {
+
+    /**
+     * 合并通知的延迟时间
+     */
+    public static final long DEBOUNCE_DELAY = 500;
+
+    private Context mContext = null;
+
+    private Handler mHandler = null;
+
+    private ImageDeltaTask mDeltaTask = null;
+
+    /**
+     * 查询过程中又收到了通知，查询结束后需要再查一次
+     */
+    private boolean mPending = false;
+
+    /**
+     * 完整扫描还没有结束，等扫描结果写入{@link AlbumStore}后再查询
+     */
+    private boolean mWaitingForScan = false;
+
+    private OnAlbumChangeListener mScanListener = new OnAlbumChangeListener() {
+
+        @Override
+        public void onAlbumsChanged() {
+            if (mWaitingForScan && AlbumStore.getInstance().isLoaded()) {
+                stopWaitingForScan();
+                requestUpdate();
+            }
+        }
+
+        @Override
+        public void onAlbumImagesChanged(int position, ImageGroup group, List<String> inserted,
+                List<String> removed) {
+        }
+    };
+
+    private Runnable mQueryRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            query();
+        }
+    };
+
+    public ImageChangeObserver(Context context) {
+        this(context, new Handler(Looper.getMainLooper()));
+    }
+
+    private ImageChangeObserver(Context context, Handler handler) {
+        super(handler);
+        mContext = context.getApplicationContext();
+        mHandler = handler;
+    }
+
+    /**
+     * 开始监听
+     */
+    public void register() {
+        mContext.getContentResolver().registerContentObserver(ImageLoadTask.IMAGE_URI, true, this);
+    }
+
+    /**
+     * 停止监听，并取消正在进行的查询
+     */
+    public void unregister() {
+        mContext.getContentResolver().unregisterContentObserver(this);
+        mHandler.removeCallbacks(mQueryRunnable);
+        mPending = false;
+        stopWaitingForScan();
+        if (mDeltaTask != null) {
+            mDeltaTask.cancel();
+            mDeltaTask = null;
+        }
+    }
+
+    /**
+     * 主动请求一次增量查询
+     */
+    public void requestUpdate() {
+        mHandler.removeCallbacks(mQueryRunnable);
+        mHandler.postDelayed(mQueryRunnable, DEBOUNCE_DELAY);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        requestUpdate();
+    }
+
+    private void query() {
+        final AlbumStore store = AlbumStore.getInstance();
+        // 完整扫描还没有结束，扫描结果写入后再查；扫描失败或被取消时不再查询
+        if (!store.isLoaded()) {
+            if (!mWaitingForScan) {
+                mWaitingForScan = true;
+                store.addOnAlbumChangeListener(mScanListener);
+            }
+            return;
+        }
+        if (mDeltaTask != null && mDeltaTask.getStatus() != Status.FINISHED) {
+            mPending = true;
+            return;
+        }
+        mPending = false;
+        mDeltaTask = new ImageDeltaTask(mContext, store, new OnTaskResultListener() {
+
+            @Override
+            public void onResult(boolean success, String error, Object result) {
+                mDeltaTask = null;
+                if (success && result instanceof ImageDelta) {
+                    store.applyDelta((ImageDelta)result);
+                }
+                if (mPending) {
+                    requestUpdate();
+                }
+            }
+        });
+        CommonUtil.execute(mDeltaTask);
+    }
+
+    private void stopWaitingForScan() {
+        if (mWaitingForScan) {
+            mWaitingForScan = false;
+            AlbumStore.getInstance().removeOnAlbumChangeListener(mScanListener);
+        }
+    }
+}
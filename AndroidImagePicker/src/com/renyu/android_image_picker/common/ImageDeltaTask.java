@@ -0,0 +1,141 @@
+/**
+ * ImageDeltaTask.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import com.renyu.android_image_picker.model.AlbumStore;
+import com.renyu.android_image_picker.model.ImageDelta;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.MediaStore.Images.Media;
+import android.util.Log;
+
+/**
+ * 只查询MediaStore中水位之后变化的图片的异步任务
+ * <p>
+ * 新增和修改的图片通过_ID/DATE_MODIFIED水位查询；只有图片总数对不上时才遍历_ID列找出被删除的图片
+ */
+public class ImageDeltaTask extends BaseTask {
+
+    /**
+     * 上下文对象
+     */
+    private Context mContext = null;
+
+    private long mMaxId = 0;
+
+    private long mMaxDateModified = 0;
+
+    private int mImageCount = 0;
+
+    /**
+     * 已知图片的_ID，升序排列
+     */
+    private long[] mKnownIds = null;
+
+    private ImageDelta mDelta = new ImageDelta();
+
+    /**
+     * 在UI线程中创建，记录当前相册数据的水位
+     *
+     * @param context
+     * @param store
+     * @param listener
+     */
+    public ImageDeltaTask(Context context, AlbumStore store, OnTaskResultListener listener) {
+        super();
+        mContext = context;
+        mMaxId = store.getMaxId();
+        mMaxDateModified = store.getMaxDateModified();
+        mImageCount = store.getImageCount();
+        mKnownIds = store.getSortedIds();
+        result = mDelta;
+        setOnResultListener(listener);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.os.AsyncTask#doInBackground(Params[])
+     */
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        ContentResolver mContentResolver = mContext.getContentResolver();
+        mDelta.maxId = mMaxId;
+        mDelta.maxDateModified = mMaxDateModified;
+        Cursor mCursor = null;
+        int inserted = 0;
+        try {
+            // 新增或修改过的图片
+            mCursor = mContentResolver.query(ImageLoadTask.IMAGE_URI, ImageLoadTask.PROJECTION, "("
+                    + ImageLoadTask.PATH_SELECTION + ") and (" + Media._ID + ">? or " + Media.DATE_MODIFIED + ">?)",
+                    new String[] {
+                            ImageLoadTask.SELECTION_ARGS[0], ImageLoadTask.SELECTION_ARGS[1],
+                            String.valueOf(mMaxId), String.valueOf(mMaxDateModified)
+                    }, Media._ID);
+            if (mCursor == null) {
+                return false;
+            }
+            int idIndex = mCursor.getColumnIndex(Media._ID);
+            int dataIndex = mCursor.getColumnIndex(Media.DATA);
+            int modifiedIndex = mCursor.getColumnIndex(Media.DATE_MODIFIED);
+            while (!isCancelled() && mCursor.moveToNext()) {
+                String path = mCursor.getString(dataIndex);
+                if (path == null) {
+                    continue;
+                }
+                long id = mCursor.getLong(idIndex);
+                if (id <= mMaxId) {
+                    // 已有的图片被修改过，先删除再重新加入
+                    mDelta.deletedIds.add(id);
+                } else {
+                    inserted++;
+                }
+                mDelta.insertedIds.add(id);
+                mDelta.insertedPaths.add(path);
+                mDelta.maxId = Math.max(mDelta.maxId, id);
+                mDelta.maxDateModified = Math.max(mDelta.maxDateModified, mCursor.getLong(modifiedIndex));
+            }
+            mCursor.close();
+
+            // 图片总数，对不上时说明有图片被删除
+            mCursor = mContentResolver.query(ImageLoadTask.IMAGE_URI, new String[] {
+                    Media._ID
+            }, ImageLoadTask.PATH_SELECTION, ImageLoadTask.SELECTION_ARGS, Media._ID);
+            if (mCursor == null) {
+                return false;
+            }
+            mDelta.imageCount = mCursor.getCount();
+            if (mDelta.imageCount != mImageCount + inserted) {
+                int k = 0;
+                while (!isCancelled() && mCursor.moveToNext()) {
+                    long id = mCursor.getLong(0);
+                    while (k < mKnownIds.length && mKnownIds[k] < id) {
+                        mDelta.deletedIds.add(mKnownIds[k++]);
+                    }
+                    if (k < mKnownIds.length && mKnownIds[k] == id) {
+                        k++;
+                    }
+                }
+                while (k < mKnownIds.length) {
+                    mDelta.deletedIds.add(mKnownIds[k++]);
+                }
+            }
+        } catch (Exception e) {
+            // 输出日志
+            Log.e(e.toString(), "imageDeltaTask");
+            return false;
+        } finally {
+            // 关闭游标
+            if (mCursor != null && !mCursor.isClosed()) {
+                mCursor.close();
+            }
+        }
+        return true;
+    }
+}
@@ -8,8 +8,8 @@
 
 package com.renyu.android_image_picker.common;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.renyu.android_image_picker.model.ImageGroup;
 
@@ -28,6 +28,39 @@ import android.util.Log;
  */
 public class ImageLoadTask extends BaseTask {
 
+    /**
+     * 第一批返回的图片数量，尽快让界面显示出第一屏相册
+     */
+    public static final int FIRST_PAGE_SIZE = 500;
+
+    /**
+     * 之后每批返回的图片数量
+     */
+    public static final int PAGE_SIZE = 2000;
+
+    /**
+     * 只查询需要的列，避免游标窗口被无用的列填满
+     */
+    public static final String[] PROJECTION = new String[] {
+            Media._ID, Media.DATA, Media.DATE_MODIFIED
+    };
+
+    public static final Uri IMAGE_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    /**
+     * 查询条件，只查询jpeg和png的图片
+     */
+    public static final String SELECTION = Media.MIME_TYPE + "=? or " + Media.MIME_TYPE + "=?";
+
+    public static final String[] SELECTION_ARGS = new String[] {
+            "image/jpeg", "image/png"
+    };
+
+    /**
+     * 在{@link #SELECTION}的基础上跳过没有路径的记录，全量扫描、增量更新和统计总数都用这个条件，否则数量对不上
+     */
+    public static final String PATH_SELECTION = "(" + SELECTION + ") and " + Media.DATA + " is not null";
+
     /**
      * 上下文对象
      */
@@ -38,6 +71,46 @@ public class ImageLoadTask extends BaseTask {
      */
     private ArrayList<ImageGroup> mGruopList = new ArrayList<ImageGroup>();
 
+    /**
+     * 以文件夹路径为键的分组索引
+     */
+    private HashMap<String, ImageGroup> mGroupIndex = new HashMap<String, ImageGroup>();
+
+    /**
+     * 当前批次新增的图片分组，每批结束后通过publishProgress返回，然后重新创建
+     */
+    private ArrayList<ImageGroup> mPageList = new ArrayList<ImageGroup>();
+
+    /**
+     * 当前批次的分组索引
+     */
+    private HashMap<String, ImageGroup> mPageIndex = new HashMap<String, ImageGroup>();
+
+    /**
+     * 是否分批返回扫描结果
+     */
+    private boolean mPublishPages = true;
+
+    /**
+     * 上一张图片所在文件夹路径
+     */
+    private String mLastDirPath = null;
+
+    /**
+     * 已读取图片的最大_ID
+     */
+    private long mMaxId = 0;
+
+    /**
+     * 已读取图片的最大DATE_MODIFIED
+     */
+    private long mMaxDateModified = 0;
+
+    /**
+     * 已读取图片总数
+     */
+    private int mImageCount = 0;
+
     public ImageLoadTask(Context context) {
         super();
         mContext = context;
@@ -57,50 +130,85 @@ public class ImageLoadTask extends BaseTask {
      */
     @Override
     protected Boolean doInBackground(Void... params) {
-        Uri mImageUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-        ContentResolver mContentResolver = mContext.getContentResolver();
-        // 构建查询条件，且只查询jpeg和png的图片
-        StringBuilder selection = new StringBuilder();
-        selection.append(Media.MIME_TYPE).append("=?");
-        selection.append(" or ");
-        selection.append(Media.MIME_TYPE).append("=?");
+        // 先用上次保存的快照显示相册，再只读取快照之后新增的图片
+        AlbumIndexSnapshot snapshot = AlbumIndexSnapshot.read();
+        if (snapshot != null && !isCancelled()) {
+            ArrayList<ImageGroup> copies = new ArrayList<ImageGroup>(snapshot.groups.size());
+            for (ImageGroup group : snapshot.groups) {
+                mGroupIndex.put(group.getDirPath(), group);
+                mGruopList.add(group);
+                copies.add(group.copy());
+            }
+            mMaxId = snapshot.maxId;
+            mMaxDateModified = snapshot.maxDateModified;
+            mImageCount = snapshot.imageCount;
+            publishProgress(copies);
+
+            try {
+                if (reconcile()) {
+                    saveSnapshot();
+                    return true;
+                }
+            } catch (Exception e) {
+                // 输出日志
+                Log.e(e.toString(), "imageLoadTask");
+            }
+            // 无法增量更新，重新全量扫描，界面已经显示了快照，扫描完成后整体替换
+            mGroupIndex.clear();
+            mGruopList.clear();
+            mMaxId = 0;
+            mMaxDateModified = 0;
+            mImageCount = 0;
+            mPublishPages = false;
+        }
+
+        if (!scan()) {
+            return false;
+        }
+        if (!isCancelled()) {
+            saveSnapshot();
+        }
+        return true;
+    }
 
+    /**
+     * 全量扫描所有图片
+     * 
+     * @return 扫描成功返回true
+     */
+    private boolean scan() {
         Cursor mCursor = null;
         try {
             // 初始化游标
-            mCursor = mContentResolver.query(mImageUri, null, selection.toString(), new String[] {
-                    "image/jpeg", "image/png"
-            }, Media.DATE_TAKEN);
+            mCursor = mContext.getContentResolver().query(IMAGE_URI, PROJECTION, PATH_SELECTION, SELECTION_ARGS,
+                    Media.DATE_TAKEN);
+            if (mCursor == null) {
+                return false;
+            }
+            int idIndex = mCursor.getColumnIndex(Media._ID);
+            int dataIndex = mCursor.getColumnIndex(Media.DATA);
+            int modifiedIndex = mCursor.getColumnIndex(Media.DATE_MODIFIED);
+            int pageLimit = FIRST_PAGE_SIZE;
+            int pageRows = 0;
             // 遍历结果
-            while (mCursor.moveToNext()) {
+            while (!isCancelled() && mCursor.moveToNext()) {
                 // 获取图片的路径
-                String path = mCursor.getString(mCursor.getColumnIndex(Media.DATA));
-
-                // 获取该图片的所在文件夹的路径
-                File file = new File(path);
-                String parentName = "";
-                if (file.getParentFile() != null) {
-                    parentName = file.getParentFile().getName();
-                } else {
-                    parentName = file.getName();
+                String path = mCursor.getString(dataIndex);
+                if (path == null) {
+                    continue;
                 }
-                // 构建一个imageGroup对象
-                ImageGroup item = new ImageGroup();
-                // 设置imageGroup的文件夹名称
-                item.setDirName(parentName);
-
-                // 寻找该imageGroup是否是其所在的文件夹中的第一张图片
-                int searchIdx = mGruopList.indexOf(item);
-                if (searchIdx >= 0) {
-                    // 如果是，该组的图片数量+1
-                    ImageGroup imageGroup = mGruopList.get(searchIdx);
-                    imageGroup.addImage(path);
-                } else {
-                    // 否则，将该对象加入到groupList中
-                    item.addImage(path);
-                    mGruopList.add(item);
+                long id = mCursor.getLong(idIndex);
+                addImage(id, path);
+                updateWatermark(id, mCursor.getLong(modifiedIndex));
+
+                // 一批结束，返回给界面先显示
+                if (++pageRows >= pageLimit) {
+                    publishPage();
+                    pageRows = 0;
+                    pageLimit = PAGE_SIZE;
                 }
             }
+            publishPage();
         } catch (Exception e) {
             // 输出日志
             Log.e(e.toString(), "imageLoadTask");
@@ -113,4 +221,174 @@ public class ImageLoadTask extends BaseTask {
         }
         return true;
     }
+
+    /**
+     * 根据快照的水位只读取新增的图片
+     * 
+     * @return 增量更新成功返回true；有图片被修改或删除时返回false，需要全量扫描
+     */
+    private boolean reconcile() {
+        ContentResolver mContentResolver = mContext.getContentResolver();
+        Cursor mCursor = null;
+        int total;
+        try {
+            mCursor = mContentResolver.query(IMAGE_URI, new String[] {
+                    Media._ID
+            }, PATH_SELECTION, SELECTION_ARGS, null);
+            if (mCursor == null) {
+                return false;
+            }
+            total = mCursor.getCount();
+        } finally {
+            if (mCursor != null && !mCursor.isClosed()) {
+                mCursor.close();
+            }
+        }
+
+        ArrayList<Long> ids = new ArrayList<Long>();
+        ArrayList<String> paths = new ArrayList<String>();
+        long maxId = mMaxId;
+        long maxDateModified = mMaxDateModified;
+        try {
+            mCursor = mContentResolver.query(IMAGE_URI, PROJECTION, "(" + PATH_SELECTION + ") and ("
+                    + Media._ID + ">? or " + Media.DATE_MODIFIED + ">?)", new String[] {
+                    SELECTION_ARGS[0], SELECTION_ARGS[1], String.valueOf(mMaxId), String.valueOf(mMaxDateModified)
+            }, Media.DATE_TAKEN);
+            if (mCursor == null) {
+                return false;
+            }
+            int idIndex = mCursor.getColumnIndex(Media._ID);
+            int dataIndex = mCursor.getColumnIndex(Media.DATA);
+            int modifiedIndex = mCursor.getColumnIndex(Media.DATE_MODIFIED);
+            while (mCursor.moveToNext()) {
+                long id = mCursor.getLong(idIndex);
+                // 快照中已有的图片被修改过，无法确定其在分组中的位置
+                if (id <= mMaxId) {
+                    return false;
+                }
+                String path = mCursor.getString(dataIndex);
+                if (path == null) {
+                    return false;
+                }
+                ids.add(id);
+                paths.add(path);
+                maxId = Math.max(maxId, id);
+                maxDateModified = Math.max(maxDateModified, mCursor.getLong(modifiedIndex));
+            }
+        } finally {
+            if (mCursor != null && !mCursor.isClosed()) {
+                mCursor.close();
+            }
+        }
+
+        // 数量对不上说明有图片被删除
+        if (mImageCount + paths.size() != total) {
+            return false;
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            addImage(ids.get(i), paths.get(i));
+        }
+        mMaxId = maxId;
+        mMaxDateModified = maxDateModified;
+        mImageCount = total;
+        publishPage();
+        return true;
+    }
+
+    /**
+     * 将一张图片加入分组
+     * 
+     * @param id 图片_ID
+     * @param path 图片完整路径
+     */
+    private void addImage(long id, String path) {
+        // 获取该图片的所在文件夹的路径，与上一张图片在同一文件夹时直接复用，避免重复生成字符串
+        int slash = path.lastIndexOf('/');
+        String dirPath;
+        if (mLastDirPath != null && slash == mLastDirPath.length() && path.startsWith(mLastDirPath)) {
+            dirPath = mLastDirPath;
+        } else {
+            dirPath = path.substring(0, Math.max(slash, 0));
+            mLastDirPath = dirPath;
+        }
+        String name = path.substring(slash + 1);
+
+        // 寻找该图片所在文件夹是否已经有对应的imageGroup
+        ImageGroup imageGroup = mGroupIndex.get(dirPath);
+        if (imageGroup == null) {
+            // 否则，构建一个imageGroup对象并加入到groupList中
+            imageGroup = new ImageGroup();
+            imageGroup.setDirPath(dirPath);
+            mGroupIndex.put(dirPath, imageGroup);
+            mGruopList.add(imageGroup);
+        }
+        imageGroup.addImage(id, name);
+        if (mPublishPages) {
+            addToPage(dirPath, id, name);
+        }
+    }
+
+    /**
+     * 获取已读取图片的最大_ID，扫描完成后在UI线程中调用
+     * 
+     * @return
+     */
+    public long getMaxId() {
+        return mMaxId;
+    }
+
+    public long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    public int getImageCount() {
+        return mImageCount;
+    }
+
+    private void updateWatermark(long id, long dateModified) {
+        mMaxId = Math.max(mMaxId, id);
+        mMaxDateModified = Math.max(mMaxDateModified, dateModified);
+        mImageCount++;
+    }
+
+    private void saveSnapshot() {
+        AlbumIndexSnapshot snapshot = new AlbumIndexSnapshot();
+        snapshot.groups = mGruopList;
+        snapshot.maxId = mMaxId;
+        snapshot.maxDateModified = mMaxDateModified;
+        snapshot.imageCount = mImageCount;
+        snapshot.write();
+    }
+
+    /**
+     * 将图片加入当前批次
+     * 
+     * @param dirPath 所在文件夹路径
+     * @param id 图片_ID
+     * @param name 图片文件名
+     */
+    private void addToPage(String dirPath, long id, String name) {
+        ImageGroup item = mPageIndex.get(dirPath);
+        if (item == null) {
+            item = new ImageGroup();
+            item.setDirPath(dirPath);
+            mPageIndex.put(dirPath, item);
+            mPageList.add(item);
+        }
+        item.addImage(id, name);
+    }
+
+    /**
+     * 返回当前批次新增的图片分组
+     * <p>
+     * 批次中的对象与mGruopList中的对象互相独立，UI线程可以直接合并而不会与扫描线程冲突
+     */
+    private void publishPage() {
+        if (mPageList.isEmpty()) {
+            return;
+        }
+        publishProgress(mPageList);
+        mPageList = new ArrayList<ImageGroup>();
+        mPageIndex = new HashMap<String, ImageGroup>();
+    }
 }
@@ -0,0 +1,231 @@
+/**
+ * MemoryTrimManager.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import com.lidroid.xutils.BitmapUtils;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 根据系统内存压力调整图片内存缓存的大小
+ * <p>
+ * 由Application在onTrimMemory/onLowMemory中调用，按压力等级缩小或清空缓存；
+ * 压力解除且界面在前台时，每隔一段时间把缓存放大一倍，直到恢复配置的大小。界面可见时缓存至少保留
+ * {@link #MIN_RESTORE_RATIO}，避免刚放进缓存的图片立刻被淘汰。所有方法都在主线程调用
+ */
+public class MemoryTrimManager {
+
+    /**
+     * 两次放大缓存的间隔
+     */
+    private static final long RESTORE_INTERVAL = 30 * 1000;
+
+    /**
+     * 从清空状态恢复时的第一档，也是界面可见时的下限
+     */
+    private static final float MIN_RESTORE_RATIO = 0.25f;
+
+    private BitmapUtils mBitmapUtils = null;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 当前保留的缓存比例
+     */
+    private float mRatio = 1f;
+
+    /**
+     * 界面是否已经不可见，不可见时不放大缓存
+     */
+    private boolean mHidden = false;
+
+    private int mStartedActivities = 0;
+
+    /**
+     * 是否在监听Activity的显示，没有监听时认为界面一直可见
+     */
+    private boolean mTracking = false;
+
+    private int mTrimCount = 0;
+
+    private final Runnable mRestoreRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            if (mHidden || mRatio >= 1f) {
+                return;
+            }
+            applyRatio(Math.min(1f, Math.max(MIN_RESTORE_RATIO, mRatio * 2)));
+            scheduleRestore();
+        }
+    };
+
+    /**
+     * @param bitmapUtils 要管理的图片缓存
+     */
+    public MemoryTrimManager(BitmapUtils bitmapUtils) {
+        mBitmapUtils = bitmapUtils;
+    }
+
+    /**
+     * 监听Activity的显示，界面回到前台时开始恢复缓存
+     * <p>
+     * onTrimMemory从4.0开始才有，更低的版本不需要监听
+     *
+     * @param application
+     */
+    @SuppressLint("NewApi")
+    public void register(Application application) {
+        if (Build.VERSION.SDK_INT < 14) {
+            return;
+        }
+        mTracking = true;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                mStartedActivities++;
+                if (mHidden || mRatio < MIN_RESTORE_RATIO) {
+                    mHidden = false;
+                    // 不等第一次恢复，界面显示时缓存马上可用
+                    if (mRatio < MIN_RESTORE_RATIO) {
+                        applyRatio(MIN_RESTORE_RATIO);
+                    }
+                    scheduleRestore();
+                }
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                mStartedActivities = Math.max(0, mStartedActivities - 1);
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * 按压力等级缩小缓存，只会缩小不会放大
+     *
+     * @param level {@link ComponentCallbacks2}中的TRIM_MEMORY_*
+     */
+    public void onTrimMemory(int level) {
+        mTrimCount++;
+        boolean visible = isUiVisible();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && !visible) {
+            mHidden = true;
+        }
+        float ratio = getRatioForLevel(level);
+        if (visible) {
+            ratio = Math.max(ratio, MIN_RESTORE_RATIO);
+        }
+        if (ratio < mRatio) {
+            applyRatio(ratio);
+        }
+        // 压力还在，重新计时
+        scheduleRestore();
+    }
+
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * @return 当前的缓存上限，字节
+     */
+    public int getBudget() {
+        return mBitmapUtils.getMemoryCacheBudget();
+    }
+
+    /**
+     * @return 缓存已经占用的字节数
+     */
+    public int getUsage() {
+        return mBitmapUtils.getMemoryCacheUsage();
+    }
+
+    /**
+     * @return 缓存淘汰的条目数，包括缩小缓存时淘汰的
+     */
+    public int getEvictionCount() {
+        return mBitmapUtils.getMemoryCacheEvictionCount();
+    }
+
+    /**
+     * @return 收到的内存压力通知次数
+     */
+    public int getTrimCount() {
+        return mTrimCount;
+    }
+
+    public float getRatio() {
+        return mRatio;
+    }
+
+    /**
+     * 后台进程越靠近LRU列表的末尾越容易被杀，这时候清空缓存；
+     * 前台运行时内存紧张只缩小缓存，保证当前界面的图片还能命中
+     */
+    private static float getRatioForLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1f;
+    }
+
+    private boolean isUiVisible() {
+        return !mTracking || mStartedActivities > 0;
+    }
+
+    private void applyRatio(float ratio) {
+        mRatio = ratio;
+        mBitmapUtils.trimMemoryCache(ratio);
+    }
+
+    private void scheduleRestore() {
+        mHandler.removeCallbacks(mRestoreRunnable);
+        if (!mHidden && mRatio < 1f) {
+            mHandler.postDelayed(mRestoreRunnable, RESTORE_INTERVAL);
+        }
+    }
+}
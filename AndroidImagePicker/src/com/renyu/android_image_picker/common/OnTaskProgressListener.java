@@ -0,0 +1,22 @@
+/**
+ * OnTaskProgressListener.java
+ * ImageChooser
+ * 
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+/**
+ * 异步任务分批返回中间结果的回调接口
+ * <p>
+ * 在{@link OnTaskResultListener#onResult}之前，可能会被多次回调，均在UI线程中执行
+ */
+public interface OnTaskProgressListener extends OnTaskResultListener {
+    /**
+     * 中间结果回调函数
+     * 
+     * @param progress 本批次新增的结果
+     */
+    void onProgress(final Object progress);
+}
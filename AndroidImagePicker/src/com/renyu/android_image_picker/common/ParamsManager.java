@@ -2,10 +2,10 @@ package com.renyu.android_image_picker.common;
 
 public class ParamsManager {
 	
-	//传递图片文件夹中文件列表
-    public static final String EXTRA_IMAGES_DATAS="extra_images";
     //传递图片文件夹文件名
     public static final String EXTRA_TITLE="extra_title";
+    //传递图片文件夹完整路径
+    public static final String EXTRA_DIR_PATH="extra_dir_path";
     //url
     public static final String URL="http://www.kidsedu.com/api/json/avatar_uploadAvatar_feedback";
 }
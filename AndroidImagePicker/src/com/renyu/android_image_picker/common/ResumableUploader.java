@@ -0,0 +1,470 @@
+/**
+ * ResumableUploader.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.lidroid.xutils.http.callback.RequestCallBackHandler;
+
+/**
+ * 分块断点续传
+ * <p>
+ * 文件按固定大小分块，多个分块并行上传，服务器确认的分块记录在程序私有目录下的日志文件中，
+ * 网络中断或进程被杀后再次上传同一文件时只上传未确认的分块
+ * <p>
+ * 协议：每个分块以请求体POST到 url?uploadId=&index=&offset=&total=&chunks=，请求头X-Chunk-MD5为分块的MD5(十六进制)，
+ * 服务器返回{"md5":"..."}，与本地MD5一致才算确认；全部分块确认后POST url?uploadId=&total=&chunks=&complete=1，
+ * 返回的内容即为上传结果
+ * <p>
+ * 日志格式：MAGIC, VERSION, 文件长度, 文件修改时间, 分块大小, 之后每个确认的分块追加一个序号
+ */
+public class ResumableUploader {
+
+    private static final int MAGIC = 0x52555044;
+
+    private static final int VERSION = 1;
+
+    // MAGIC, VERSION, 文件长度, 文件修改时间, 分块大小
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4;
+
+    private static final String JOURNAL_SUFFIX = ".upload";
+
+    private static final String CHARSET = "UTF-8";
+
+    private String mUrl = null;
+
+    private File mFile = null;
+
+    private File mJournalDir = null;
+
+    private int mChunkSize = 256 * 1024;
+
+    private int mConcurrency = 2;
+
+    private int mMaxRetries = 3;
+
+    private int mConnectTimeout = 10 * 1000;
+
+    private int mReadTimeout = 15 * 1000;
+
+    private RequestCallBackHandler mCallBackHandler = null;
+
+    private volatile boolean isCancelled = false;
+
+    /**
+     * @param url 上传路径，可以带参数
+     * @param file 要上传的文件
+     */
+    public ResumableUploader(String url, File file) {
+        this(url, file, new File(FileUtil.LOCAL_PATH));
+    }
+
+    /**
+     * @param url 上传路径，可以带参数
+     * @param file 要上传的文件
+     * @param journalDir 日志文件所在目录
+     */
+    public ResumableUploader(String url, File file, File journalDir) {
+        mUrl = url;
+        mFile = file;
+        mJournalDir = journalDir;
+    }
+
+    /**
+     * 分块大小，已有日志的分块大小不同时从头上传
+     *
+     * @param chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+        mChunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * 同时上传的分块数
+     *
+     * @param concurrency
+     */
+    public void setConcurrency(int concurrency) {
+        mConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * 每个分块失败后的重试次数
+     *
+     * @param maxRetries
+     */
+    public void setMaxRetries(int maxRetries) {
+        mMaxRetries = Math.max(0, maxRetries);
+    }
+
+    public void setTimeout(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * 上传进度回调，进度为已确认的字节数，返回false时中止上传
+     *
+     * @param callBackHandler
+     */
+    public void setCallBackHandler(RequestCallBackHandler callBackHandler) {
+        mCallBackHandler = callBackHandler;
+    }
+
+    /**
+     * 中止上传，已确认的分块下次继续使用
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * 上传文件，已确认的分块不再上传
+     *
+     * @return 服务器对完成请求的响应内容
+     * @throws IOException 上传失败，已确认的分块保留在日志中
+     */
+    public String upload() throws IOException {
+        final long total = mFile.length();
+        final int chunkCount = (int) Math.max(1, (total + mChunkSize - 1) / mChunkSize);
+        final String uploadId = getUploadId();
+        final File journalFile = new File(mJournalDir, uploadId + JOURNAL_SUFFIX);
+
+        BitSet acked = readJournal(journalFile, chunkCount);
+        if (acked == null) {
+            acked = new BitSet(chunkCount);
+            writeJournalHeader(journalFile);
+        }
+
+        final AtomicLong ackedBytes = new AtomicLong();
+        ArrayList<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (acked.get(i)) {
+                ackedBytes.addAndGet(getChunkLength(i, total));
+            } else {
+                pending.add(i);
+            }
+        }
+        notifyProgress(total, ackedBytes.get(), true);
+
+        if (!pending.isEmpty()) {
+            final DataOutputStream journal = new DataOutputStream(new FileOutputStream(journalFile, true));
+            final RandomAccessFile source = new RandomAccessFile(mFile, "r");
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(mConcurrency, pending.size()));
+            final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(mConcurrency);
+            for (int i = 0; i < mConcurrency; i++) {
+                buffers.add(new byte[mChunkSize]);
+            }
+            try {
+                ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (final Integer index : pending) {
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception {
+                            byte[] buffer = buffers.take();
+                            try {
+                                int length = readChunk(source.getChannel(), index, total, buffer);
+                                uploadChunk(uploadId, index, total, chunkCount, buffer, length);
+                                synchronized (journal) {
+                                    journal.writeInt(index);
+                                    journal.flush();
+                                }
+                                notifyProgress(total, ackedBytes.addAndGet(length), false);
+                            } finally {
+                                buffers.add(buffer);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    waitFor(future);
+                }
+            } finally {
+                executor.shutdownNow();
+                source.close();
+                journal.close();
+            }
+        }
+
+        String response = complete(uploadId, total, chunkCount);
+        journalFile.delete();
+        return response;
+    }
+
+    /**
+     * 同一文件内容的上传使用同一个id，文件被修改后重新上传
+     */
+    private String getUploadId() {
+        return md5Hex((mFile.getAbsolutePath() + "_" + mFile.length() + "_" + mFile.lastModified() + "_" + mChunkSize)
+                .getBytes());
+    }
+
+    private long getChunkLength(int index, long total) {
+        return Math.min(mChunkSize, total - (long) index * mChunkSize);
+    }
+
+    private int readChunk(FileChannel channel, int index, long total, byte[] buffer) throws IOException {
+        int length = (int) getChunkLength(index, total);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        long position = (long) index * mChunkSize;
+        while (byteBuffer.hasRemaining()) {
+            // 按位置读取，多个线程可以共用一个FileChannel
+            int read = channel.read(byteBuffer, position + byteBuffer.position());
+            if (read == -1) {
+                throw new EOFException("file changed while uploading");
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 上传一个分块，失败后按1s、2s、4s...间隔重试
+     */
+    private void uploadChunk(String uploadId, int index, long total, int chunkCount, byte[] buffer, int length)
+            throws IOException, InterruptedException {
+        String md5 = md5Hex(buffer, length);
+        String url = buildUrl("uploadId=" + uploadId + "&index=" + index + "&offset=" + (long) index * mChunkSize
+                + "&total=" + total + "&chunks=" + chunkCount);
+        IOException lastError = null;
+        for (int attempt = 0; attempt <= mMaxRetries; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(1000L << (attempt - 1));
+            }
+            checkCancelled();
+            try {
+                String response = post(url, md5, buffer, length);
+                if (response != null && md5.equalsIgnoreCase(new JSONObject(response).optString("md5"))) {
+                    return;
+                }
+                lastError = new IOException("chunk " + index + " not acknowledged");
+            } catch (JSONException e) {
+                lastError = new IOException("chunk " + index + " bad response");
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    private String complete(String uploadId, long total, int chunkCount) throws IOException {
+        checkCancelled();
+        String response = post(buildUrl("uploadId=" + uploadId + "&total=" + total + "&chunks=" + chunkCount
+                + "&complete=1"), null, null, 0);
+        if (response == null) {
+            throw new IOException("upload " + uploadId + " not completed");
+        }
+        return response;
+    }
+
+    /**
+     * @return 响应码为200时返回response的body内容，否则返回null
+     */
+    private String post(String url, String md5, byte[] body, int length) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(mConnectTimeout);
+            conn.setReadTimeout(mReadTimeout);
+            conn.setDoInput(true);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/octet-stream");
+            if (md5 != null) {
+                conn.setRequestProperty("X-Chunk-MD5", md5);
+            }
+            conn.setFixedLengthStreamingMode(length);
+            OutputStream out = conn.getOutputStream();
+            try {
+                if (length > 0) {
+                    out.write(body, 0, length);
+                }
+                out.flush();
+            } finally {
+                out.close();
+            }
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            InputStream in = conn.getInputStream();
+            try {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    response.write(buffer, 0, read);
+                }
+                return response.toString(CHARSET);
+            } finally {
+                in.close();
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private String buildUrl(String query) {
+        return mUrl + (mUrl.indexOf('?') == -1 ? "?" : "&") + query;
+    }
+
+    private void waitFor(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedIOException("interrupted");
+            }
+            throw new IOException(String.valueOf(cause));
+        }
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (isCancelled) {
+            throw new InterruptedIOException("stop");
+        }
+    }
+
+    private void notifyProgress(long total, long current, boolean forceUpdateUI) {
+        if (mCallBackHandler != null && !mCallBackHandler.updateProgress(total, current, forceUpdateUI)) {
+            cancel();
+        }
+    }
+
+    /**
+     * 读取日志，文件已被修改或日志已损坏时返回null
+     *
+     * @param chunkCount 分块数，超出范围的序号说明日志已损坏
+     */
+    private BitSet readJournal(File journalFile, int chunkCount) {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != mFile.length()
+                    || in.readLong() != mFile.lastModified() || in.readInt() != mChunkSize) {
+                return null;
+            }
+            BitSet acked = new BitSet();
+            int recordCount = 0;
+            while (true) {
+                int index;
+                try {
+                    index = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (index < 0 || index >= chunkCount) {
+                    return null;
+                }
+                acked.set(index);
+                recordCount++;
+            }
+            in.close();
+            in = null;
+            // 最后一条记录可能只写了一半，截掉后再追加
+            long validLength = HEADER_LENGTH + 4L * recordCount;
+            if (journalFile.length() != validLength) {
+                RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+                try {
+                    file.setLength(validLength);
+                } finally {
+                    file.close();
+                }
+            }
+            return acked;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void writeJournalHeader(File journalFile) throws IOException {
+        if (!mJournalDir.exists()) {
+            mJournalDir.mkdirs();
+        }
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mFile.length());
+            out.writeLong(mFile.lastModified());
+            out.writeInt(mChunkSize);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String md5Hex(byte[] data) {
+        return md5Hex(data, data.length);
+    }
+
+    private static String md5Hex(byte[] data, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, 0, length);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
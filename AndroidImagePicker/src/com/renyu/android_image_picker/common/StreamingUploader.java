@@ -0,0 +1,188 @@
+/**
+ * StreamingUploader.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.lidroid.xutils.http.callback.RequestCallBackHandler;
+import com.lidroid.xutils.http.client.multipart.HttpMultipartMode;
+import com.lidroid.xutils.http.client.multipart.MultipartEntity;
+import com.lidroid.xutils.http.client.multipart.content.FileBody;
+import com.lidroid.xutils.http.client.multipart.content.StringBody;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+
+/**
+ * 流式上传multipart/form-data表单
+ * <p>
+ * 请求体由xUtils的{@link MultipartEntity}生成，发送前先算出Content-Length并使用定长流模式，
+ * 系统不会在内存中缓存整个请求体；文件通过FileChannel读取，整个上传过程只使用一块缓冲区
+ */
+public class StreamingUploader {
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private String mUrl = null;
+
+    private MultipartEntity mEntity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE, null,
+            Charset.forName(CHARSET));
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private int mConnectTimeout = 10 * 1000;
+
+    private int mReadTimeout = 5 * 1000;
+
+    /**
+     * @param url 上传路径
+     */
+    public StreamingUploader(String url) {
+        mUrl = url;
+    }
+
+    public void setTimeout(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * 上传进度回调，返回false时中止上传
+     *
+     * @param callBackHandler
+     */
+    public void setCallBackHandler(RequestCallBackHandler callBackHandler) {
+        mEntity.setCallBackHandler(callBackHandler);
+    }
+
+    /**
+     * 添加文本参数
+     *
+     * @param name 参数名
+     * @param value 参数值
+     */
+    public void addParam(String name, String value) throws IOException {
+        mEntity.addPart(name, new StringBody(value, Charset.forName(CHARSET)));
+    }
+
+    /**
+     * 添加文件
+     *
+     * @param name 参数名
+     * @param file
+     */
+    public void addFile(String name, File file) {
+        mEntity.addPart(name, new ChannelFileBody(file, mBuffer));
+    }
+
+    /**
+     * 发送请求
+     *
+     * @return 响应码为200时返回response的body内容，否则返回null
+     * @throws IOException
+     */
+    @SuppressLint("NewApi")
+    public String upload() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(mUrl).openConnection();
+        try {
+            conn.setConnectTimeout(mConnectTimeout);
+            conn.setReadTimeout(mReadTimeout);
+            conn.setDoInput(true);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Content-Type", mEntity.getContentType().getValue());
+
+            long contentLength = mEntity.getContentLength();
+            if (contentLength >= 0 && Build.VERSION.SDK_INT >= 19) {
+                conn.setFixedLengthStreamingMode(contentLength);
+            } else if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) contentLength);
+            } else {
+                conn.setChunkedStreamingMode(BUFFER_SIZE);
+            }
+
+            OutputStream out = new BufferedOutputStream(conn.getOutputStream(), BUFFER_SIZE);
+            try {
+                mEntity.writeTo(out);
+                out.flush();
+            } finally {
+                out.close();
+            }
+
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            return readResponse(conn.getInputStream());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private String readResponse(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int length;
+            while ((length = in.read(mBuffer)) != -1) {
+                out.write(mBuffer, 0, length);
+            }
+            return out.toString(CHARSET);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 通过FileChannel读取文件，使用上传器共用的缓冲区
+     */
+    private static class ChannelFileBody extends FileBody {
+
+        private final byte[] buffer;
+
+        public ChannelFileBody(File file, byte[] buffer) {
+            super(file);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            FileInputStream in = new FileInputStream(getFile());
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int length;
+                while ((length = channel.read(byteBuffer)) != -1) {
+                    out.write(buffer, 0, length);
+                    byteBuffer.clear();
+                    callBackInfo.pos += length;
+                    if (!callBackInfo.doCallBack(false)) {
+                        throw new InterruptedIOException("stop");
+                    }
+                }
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * UploadTranscoder.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.android.mms.exif.ExifInterface;
+import com.lidroid.xutils.bitmap.core.BitmapDecoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.util.Log;
+
+/**
+ * 上传前的图片转码
+ * <p>
+ * 把图片缩放到不超过最大边长，再二分查找JPEG压缩质量使文件不超过字节上限，EXIF信息可以保留或去掉
+ */
+public class UploadTranscoder {
+
+    private static final String TAG = "UploadTranscoder";
+
+    private static final int MIN_QUALITY = 40;
+
+    private static final int MAX_QUALITY = 95;
+
+    private int mMaxDimension = 1024;
+
+    private int mMaxBytes = 200 * 1024;
+
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+
+    private boolean mKeepExif = false;
+
+    /**
+     * @param maxDimension 输出图片的最大边长
+     * @param maxBytes 输出文件的字节上限，PNG格式不受此限制
+     * @param format 输出格式
+     */
+    public UploadTranscoder(int maxDimension, int maxBytes, Bitmap.CompressFormat format) {
+        mMaxDimension = maxDimension;
+        mMaxBytes = maxBytes;
+        mFormat = format;
+    }
+
+    /**
+     * 是否保留原图的EXIF信息，只对JPEG输出有效
+     * <p>
+     * 不保留时按原图的方向旋转像素，保证去掉EXIF后图片方向不变
+     *
+     * @param keepExif
+     */
+    public void setKeepExif(boolean keepExif) {
+        mKeepExif = keepExif;
+    }
+
+    /**
+     * 转码并写到目标文件
+     *
+     * @param srcPath 原图路径
+     * @param destPath 输出路径
+     * @return 转码结果，失败时返回null
+     */
+    public Result transcode(String srcPath, String destPath) {
+        long startTime = System.currentTimeMillis();
+        Bitmap bitmap = null;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(srcPath, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            options.inSampleSize = BitmapDecoder.calculateInSampleSize(options, mMaxDimension, mMaxDimension);
+            options.inJustDecodeBounds = false;
+            bitmap = BitmapFactory.decodeFile(srcPath, options);
+            if (bitmap == null) {
+                return null;
+            }
+
+            ExifInterface exif = readExif(srcPath);
+            int rotation = 0;
+            if (exif != null) {
+                Integer orientation = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+                if (orientation != null) {
+                    rotation = ExifInterface.getRotationForOrientationValue(orientation.shortValue());
+                }
+            }
+            boolean writeExif = mKeepExif && exif != null && mFormat == Bitmap.CompressFormat.JPEG;
+            bitmap = scaleAndRotate(bitmap, writeExif ? 0 : rotation);
+            if (writeExif) {
+                // 缩放后原来的尺寸和缩略图都不对了
+                exif.removeCompressedThumbnail();
+                exif.setTagValue(ExifInterface.TAG_PIXEL_X_DIMENSION, bitmap.getWidth());
+                exif.setTagValue(ExifInterface.TAG_PIXEL_Y_DIMENSION, bitmap.getHeight());
+                exif.deleteTag(ExifInterface.TAG_IMAGE_WIDTH);
+                exif.deleteTag(ExifInterface.TAG_IMAGE_LENGTH);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(mMaxBytes);
+            int quality = compress(bitmap, out, writeExif ? exif : null);
+            byte[] data = out.toByteArray();
+            if (!FileUtil.writeFile(destPath, data, 0, data.length)) {
+                return null;
+            }
+
+            Result result = new Result();
+            result.path = destPath;
+            result.inputBytes = new File(srcPath).length();
+            result.outputBytes = data.length;
+            result.width = bitmap.getWidth();
+            result.height = bitmap.getHeight();
+            result.quality = quality;
+            result.encodeTime = System.currentTimeMillis() - startTime;
+            Log.d(TAG, result.toString());
+            return result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * 压缩到输出流中，有损格式时二分查找不超过字节上限的最高质量
+     *
+     * @return 使用的压缩质量
+     */
+    private int compress(Bitmap bitmap, ByteArrayOutputStream out, ExifInterface exif) throws IOException {
+        if (mFormat == Bitmap.CompressFormat.PNG) {
+            bitmap.compress(mFormat, 100, out);
+            return 100;
+        }
+
+        // EXIF段的长度和压缩质量无关，先量出来从字节上限中扣掉
+        int exifBytes = 0;
+        byte[] encoded = encode(bitmap, MAX_QUALITY, out);
+        if (exif != null) {
+            exifBytes = Math.max(0, withExif(encoded, exif, out).length - encoded.length);
+        }
+        int budget = mMaxBytes - exifBytes;
+
+        int quality = MAX_QUALITY;
+        if (encoded.length > budget) {
+            int low = MIN_QUALITY;
+            int high = MAX_QUALITY - 1;
+            byte[] best = null;
+            int bestQuality = MIN_QUALITY;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                byte[] candidate = encode(bitmap, mid, out);
+                if (candidate.length <= budget) {
+                    best = candidate;
+                    bestQuality = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            // 最低质量也超出上限时按最低质量输出
+            encoded = best != null ? best : encode(bitmap, MIN_QUALITY, out);
+            quality = bestQuality;
+        }
+
+        out.reset();
+        if (exif != null) {
+            exif.writeExif(encoded, out);
+        } else {
+            out.write(encoded);
+        }
+        return quality;
+    }
+
+    private byte[] encode(Bitmap bitmap, int quality, ByteArrayOutputStream out) {
+        out.reset();
+        bitmap.compress(mFormat, quality, out);
+        return out.toByteArray();
+    }
+
+    private byte[] withExif(byte[] encoded, ExifInterface exif, ByteArrayOutputStream out) throws IOException {
+        out.reset();
+        exif.writeExif(encoded, out);
+        return out.toByteArray();
+    }
+
+    private Bitmap scaleAndRotate(Bitmap bitmap, int rotation) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = Math.min(1f, (float) mMaxDimension / Math.max(width, height));
+        if (scale >= 1f && rotation == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        Bitmap result = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+        if (result != bitmap) {
+            bitmap.recycle();
+        }
+        return result;
+    }
+
+    private static ExifInterface readExif(String path) {
+        try {
+            ExifInterface exif = new ExifInterface();
+            exif.readExif(path);
+            return exif;
+        } catch (Exception e) {
+            // 不是JPEG或没有EXIF信息
+            return null;
+        }
+    }
+
+    /**
+     * 转码结果
+     */
+    public static class Result {
+
+        /**
+         * 输出文件路径
+         */
+        public String path;
+
+        /**
+         * 原图字节数
+         */
+        public long inputBytes;
+
+        /**
+         * 输出字节数
+         */
+        public long outputBytes;
+
+        public int width;
+
+        public int height;
+
+        /**
+         * 使用的压缩质量
+         */
+        public int quality;
+
+        /**
+         * 解码、缩放和压缩的总耗时，毫秒
+         */
+        public long encodeTime;
+
+        @Override
+        public String toString() {
+            return "input=" + inputBytes + "B output=" + outputBytes + "B size=" + width + "x" + height
+                    + " quality=" + quality + " time=" + encodeTime + "ms";
+        }
+    }
+}
@@ -2,17 +2,22 @@ package com.renyu.android_image_picker.crop;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.lidroid.xutils.bitmap.core.BitmapDecoder;
 import com.renyu.android_image_picker.MainActivity;
 import com.renyu.android_image_picker.R;
+import com.renyu.android_image_picker.common.CropExportTask;
 import com.renyu.android_image_picker.common.FileUtil;
+import com.renyu.android_image_picker.common.OnTaskResultListener;
 import com.renyu.android_image_picker.myview.CropImageView3;
 
 public class FinalImageActivity extends Activity {
@@ -22,6 +27,8 @@ public class FinalImageActivity extends Activity {
 	CropImageView3 finalimage_cropImg=null;
 	Button finalimage_ok=null;
 	ImageView crop_close=null;
+	
+	CropExportTask mExportTask=null;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -34,9 +41,22 @@ public class FinalImageActivity extends Activity {
 		init();
 	}
 	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if(mExportTask!=null) {
+			mExportTask.cancel();
+		}
+	}
+	
 	private void init() {
 		finalimage_cropImg=(CropImageView3) findViewById(R.id.finalimage_cropImg);
-		finalimage_cropImg.setDrawable(new BitmapDrawable(getResources(), BitmapFactory.decodeFile(imagePath)),100,100);
+		BitmapFactory.Options options=new BitmapFactory.Options();
+		Bitmap preview=decodePreview(options);
+		//放大时按需从原图解码可见的分块
+		finalimage_cropImg.setDrawable(new TiledImageDrawable(preview, imagePath, options.outWidth, options.outHeight),100,100);
+		//裁剪时从原图按区域解码
+		finalimage_cropImg.setImagePath(imagePath, options.outWidth, options.outHeight);
 
 		finalimage_ok=(Button) findViewById(R.id.finalimage_ok);
 		finalimage_ok.setOnClickListener(new Button.OnClickListener() {
@@ -44,23 +64,32 @@ public class FinalImageActivity extends Activity {
 			@Override
 			public void onClick(View v) {
 				// TODO Auto-generated method stub
-				new Thread(new Runnable(){
+				if(mExportTask!=null&&mExportTask.getStatus()!=AsyncTask.Status.FINISHED) {
+					return;
+				}
+				finalimage_ok.setEnabled(false);
+				mExportTask=new CropExportTask(finalimage_cropImg, FileUtil.SDCARD_PAHT+"/crop.jpg",
+						Bitmap.CompressFormat.JPEG, 85, new OnTaskResultListener() {
 
 					@Override
-					public void run() {
-						try {
-							FileUtil.writeImage(finalimage_cropImg.getCropImage(), FileUtil.SDCARD_PAHT+"/crop.png", 100);
-							Intent mIntent=new Intent(FinalImageActivity.this, MainActivity.class);
-							Bundle bundle=new Bundle();
-							bundle.putString("cropImagePath", FileUtil.SDCARD_PAHT+"/crop.png");
-							mIntent.putExtras(bundle);
-							mIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-							startActivity(mIntent);
-						} catch(Exception e) {
-							Toast.makeText(FinalImageActivity.this, "图片规格不正确", 3000).show();
+					public void onResult(boolean success, String error, Object result) {
+						finalimage_ok.setEnabled(true);
+						if(!success) {
+							Toast.makeText(FinalImageActivity.this, error, 3000).show();
+							return;
 						}
+						Intent mIntent=new Intent(FinalImageActivity.this, MainActivity.class);
+						Bundle bundle=new Bundle();
+						bundle.putString("cropImagePath", (String) result);
+						mIntent.putExtras(bundle);
+						mIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+						startActivity(mIntent);
 					}
-				}).start();
+				});
+				if(!mExportTask.start()) {
+					//队列已满，任务不会执行，下次点击重新创建
+					mExportTask=null;
+				}
 			}});
 		
 		crop_close=(ImageView) findViewById(R.id.crop_close);
@@ -72,4 +101,25 @@ public class FinalImageActivity extends Activity {
 				finish();
 			}});
 	}
+	
+	/**
+	 * 按屏幕尺寸采样解码预览图
+	 * @param options 解码后保存原图的宽高
+	 * @return
+	 */
+	private Bitmap decodePreview(BitmapFactory.Options options) {
+		options.inJustDecodeBounds=true;
+		BitmapFactory.decodeFile(imagePath, options);
+		int imageWidth=options.outWidth;
+		int imageHeight=options.outHeight;
+		
+		DisplayMetrics dm=getResources().getDisplayMetrics();
+		options.inSampleSize=BitmapDecoder.calculateInSampleSize(options, dm.widthPixels, dm.heightPixels);
+		options.inJustDecodeBounds=false;
+		Bitmap bitmap=BitmapFactory.decodeFile(imagePath, options);
+		
+		options.outWidth=imageWidth;
+		options.outHeight=imageHeight;
+		return bitmap;
+	}
 }
@@ -0,0 +1,340 @@
+package com.renyu.android_image_picker.crop;
+
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.lidroid.xutils.util.core.LruMemoryCache;
+
+/**
+ * 大图分块显示，先画缩小的底图，再按当前缩放比例从原图中解码可见的分块盖在上面
+ * 原图不会整张解码到内存里
+ * @author Administrator
+ *
+ */
+@SuppressLint("NewApi")
+public class TiledImageDrawable extends Drawable {
+
+	//每个分块在采样后的边长
+	private static final int TILE_SIZE=256;
+
+	private Bitmap mBaseBitmap;//底图
+	private int mBaseSample=1;//底图相对原图的采样率
+	private int mImageWidth;//原图宽度
+	private int mImageHeight;//原图高度
+
+	private BitmapRegionDecoder mDecoder;
+	private LruMemoryCache<TileKey, Bitmap> mTiles;
+	private final HashSet<TileKey> mPendingTiles=new HashSet<TileKey>();
+	private final TileKey mLookupKey=new TileKey(0);//只在UI线程中查找分块时使用
+	private volatile int mCurrentSample=0;
+	private volatile boolean isRecycled=false;
+
+	private final ExecutorService mDecodeExecutor=Executors.newSingleThreadExecutor();
+	private final Handler mHandler=new Handler(Looper.getMainLooper());
+	private final Paint mPaint=new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private final Rect mVisible=new Rect();
+	private final Rect mTileSrc=new Rect();
+	private final Rect mTileDst=new Rect();
+	//当前可见的原图区域，解码线程据此丢弃已经移出屏幕的分块
+	private final Rect mVisibleSrc=new Rect();
+
+	/**
+	 * @param baseBitmap 采样后的底图
+	 * @param imagePath 原图路径
+	 * @param imageWidth 原图宽度
+	 * @param imageHeight 原图高度
+	 */
+	public TiledImageDrawable(Bitmap baseBitmap, String imagePath, int imageWidth, int imageHeight) {
+		super();
+		this.mBaseBitmap=baseBitmap;
+		this.mImageWidth=imageWidth;
+		this.mImageHeight=imageHeight;
+		if(baseBitmap!=null&&baseBitmap.getWidth()>0)
+		{
+			mBaseSample=Math.max(1, Math.round((float)imageWidth/(float)baseBitmap.getWidth()));
+		}
+		if(android.os.Build.VERSION.SDK_INT>=10&&imageWidth>0&&imageHeight>0)
+		{
+			try {
+				mDecoder=BitmapRegionDecoder.newInstance(imagePath, false);
+			} catch(Exception e) {
+				mDecoder=null;
+			}
+		}
+		//分块缓存最多占可用内存的1/8
+		int cacheSize=(int) (Runtime.getRuntime().maxMemory()/8);
+		mTiles=new LruMemoryCache<TileKey, Bitmap>(cacheSize) {
+			@Override
+			protected int sizeOf(TileKey key, Bitmap bitmap) {
+				return bitmap.getRowBytes()*bitmap.getHeight();
+			}
+		};
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		Rect bounds=getBounds();
+		if(mBaseBitmap==null||bounds.isEmpty())
+		{
+			return;
+		}
+		canvas.drawBitmap(mBaseBitmap, null, bounds, mPaint);
+		if(mDecoder==null)
+		{
+			return;
+		}
+
+		//屏幕上一个像素对应原图的像素数，决定分块的采样率
+		float scale=(float)bounds.width()/(float)mImageWidth;
+		int sample=1;
+		while(sample*2<=1/scale)
+		{
+			sample*=2;
+		}
+		mCurrentSample=sample;
+		if(sample>=mBaseSample)
+		{
+			//底图已经够清楚了
+			return;
+		}
+
+		Rect visible=mVisible;
+		canvas.getClipBounds(visible);
+		if(!visible.intersect(bounds))
+		{
+			return;
+		}
+		float scaleY=(float)bounds.height()/(float)mImageHeight;
+		int srcLeft=Math.max(0, (int)((visible.left-bounds.left)/scale));
+		int srcTop=Math.max(0, (int)((visible.top-bounds.top)/scaleY));
+		int srcRight=Math.min(mImageWidth, (int)Math.ceil((visible.right-bounds.left)/scale));
+		int srcBottom=Math.min(mImageHeight, (int)Math.ceil((visible.bottom-bounds.top)/scaleY));
+		synchronized (mVisibleSrc) {
+			mVisibleSrc.set(srcLeft, srcTop, srcRight, srcBottom);
+		}
+
+		int tileSrcSize=TILE_SIZE*sample;
+		for(int row=srcTop/tileSrcSize;row*tileSrcSize<srcBottom;row++)
+		{
+			for(int col=srcLeft/tileSrcSize;col*tileSrcSize<srcRight;col++)
+			{
+				mTileSrc.set(col*tileSrcSize, row*tileSrcSize,
+						Math.min(mImageWidth, (col+1)*tileSrcSize), Math.min(mImageHeight, (row+1)*tileSrcSize));
+				mLookupKey.value=TileKey.pack(sample, col, row);
+				Bitmap tile=mTiles.get(mLookupKey);
+				if(tile==null)
+				{
+					requestTile(mLookupKey, mTileSrc, sample);
+					continue;
+				}
+				mTileDst.set(bounds.left+Math.round(mTileSrc.left*scale),
+						bounds.top+Math.round(mTileSrc.top*scaleY),
+						bounds.left+Math.round(mTileSrc.right*scale),
+						bounds.top+Math.round(mTileSrc.bottom*scaleY));
+				canvas.drawBitmap(tile, null, mTileDst, mPaint);
+			}
+		}
+	}
+
+	/**
+	 * 在解码线程里解码分块，完成后重绘
+	 * @param lookupKey 分块的键，可能是复用的查找对象，只在真正入队时复制
+	 * @param tileSrc 分块在原图中的区域，只在真正入队时复制
+	 */
+	private void requestTile(TileKey lookupKey, Rect tileSrc, final int sample)
+	{
+		final TileKey key;
+		synchronized (mPendingTiles) {
+			if(isRecycled||mPendingTiles.contains(lookupKey))
+			{
+				return;
+			}
+			key=new TileKey(lookupKey.value);
+			mPendingTiles.add(key);
+		}
+		final Rect region=new Rect(tileSrc);
+		mDecodeExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					//缩放比例已经变了，不再需要这个分块
+					if(isRecycled||sample!=mCurrentSample)
+					{
+						return;
+					}
+					//排队期间已经被移出屏幕
+					synchronized (mVisibleSrc) {
+						if(!Rect.intersects(mVisibleSrc, region))
+						{
+							return;
+						}
+					}
+					BitmapFactory.Options options=new BitmapFactory.Options();
+					options.inSampleSize=sample;
+					options.inPreferredConfig=Config.RGB_565;
+					Bitmap tile=mDecoder.decodeRegion(region, options);
+					if(tile!=null)
+					{
+						mTiles.put(key, tile);
+						mHandler.post(new Runnable() {
+
+							@Override
+							public void run() {
+								invalidateSelf();
+							}
+						});
+					}
+				} catch(Throwable e) {
+					e.printStackTrace();
+				} finally {
+					synchronized (mPendingTiles) {
+						mPendingTiles.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * 在分块的解码线程中按区域解码原图，与分块共用同一个解码器，在后台线程调用
+	 * @param region 原图中的区域
+	 * @param options 解码参数
+	 * @return 没有解码器或已经释放时返回null
+	 */
+	public Bitmap decodeRegion(final Rect region, final BitmapFactory.Options options)
+	{
+		if(isRecycled||mDecoder==null)
+		{
+			return null;
+		}
+		try {
+			return mDecodeExecutor.submit(new Callable<Bitmap>() {
+
+				@Override
+				public Bitmap call() throws Exception {
+					if(mDecoder.isRecycled())
+					{
+						return null;
+					}
+					return mDecoder.decodeRegion(region, options);
+				}
+			}).get();
+		} catch(Exception e) {
+			//已经释放或者解码失败
+			return null;
+		}
+	}
+
+	/**
+	 * 释放分块和解码器，不再使用时调用
+	 */
+	public void recycle()
+	{
+		if(isRecycled)
+		{
+			return;
+		}
+		isRecycled=true;
+		//等正在解码的分块结束后再释放解码器
+		mDecodeExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if(mDecoder!=null)
+				{
+					mDecoder.recycle();
+				}
+				mTiles.evictAll();
+			}
+		});
+		mDecodeExecutor.shutdown();
+	}
+
+	/**
+	 * 缩小后的底图，裁剪无法从原图解码时使用
+	 */
+	public Bitmap getBaseBitmap()
+	{
+		return mBaseBitmap;
+	}
+
+	public int getImageWidth()
+	{
+		return mImageWidth;
+	}
+
+	public int getImageHeight()
+	{
+		return mImageHeight;
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mBaseBitmap==null?0:mBaseBitmap.getWidth();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mBaseBitmap==null?0:mBaseBitmap.getHeight();
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		mPaint.setAlpha(alpha);
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		mPaint.setColorFilter(cf);
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	/**
+	 * 分块的键，采样率、列、行合成一个long，查找时复用同一个对象
+	 */
+	private static final class TileKey {
+
+		long value;
+
+		TileKey(long value) {
+			this.value=value;
+		}
+
+		static long pack(int sample, int col, int row)
+		{
+			return ((long)sample<<48)|((long)col<<24)|row;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int)(value^(value>>>32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof TileKey&&((TileKey)o).value==value;
+		}
+	}
+}
@@ -15,6 +15,7 @@ import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
@@ -23,6 +24,7 @@ import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
 import com.lidroid.xutils.bitmap.core.BitmapSize;
 import com.renyu.android_image_picker.R;
 import com.renyu.android_image_picker.common.BitmapHelp;
+import com.renyu.android_image_picker.model.AlbumStore.OnAlbumChangeListener;
 import com.renyu.android_image_picker.model.ImageGroup;
 import com.renyu.android_image_picker.myview.MyImageView;
 
@@ -31,7 +33,7 @@ import com.renyu.android_image_picker.myview.MyImageView;
  * 
  * @author likebamboo
  */
-public class ImageGroupAdapter extends BaseAdapter {
+public class ImageGroupAdapter extends BaseAdapter implements OnAlbumChangeListener {
 	
 	BitmapUtils bitmapUtils=null;;
 	BitmapDisplayConfig config=null;
@@ -46,8 +48,14 @@ public class ImageGroupAdapter extends BaseAdapter {
      */
     private List<ImageGroup> mDataList = null;
 
+    /**
+     * 所在的GridView，用于只刷新发生变化的可见项
+     */
+    private View mContainer = null;
+
     public ImageGroupAdapter(Context context, List<ImageGroup> list, View container) {
         mDataList = list;
+        mContainer = container;
         mContext = context;
         
         bitmapUtils=BitmapHelp.getBitmapUtils(context);
@@ -59,6 +67,28 @@ public class ImageGroupAdapter extends BaseAdapter {
 		config.setLoadingDrawable(context.getResources().getDrawable(R.drawable.pic_thumb));		
     }
 
+    @Override
+    public void onAlbumsChanged() {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onAlbumImagesChanged(int position, ImageGroup group, List<String> inserted, List<String> removed) {
+        // 分组数量不变时，只重新绑定该分组对应的可见项
+        if (position < 0 || !(mContainer instanceof AdapterView)) {
+            return;
+        }
+        AdapterView<?> adapterView = (AdapterView<?>)mContainer;
+        int first = adapterView.getFirstVisiblePosition();
+        if (position < first || position > adapterView.getLastVisiblePosition()) {
+            return;
+        }
+        View child = adapterView.getChildAt(position - first);
+        if (child != null) {
+            getView(position, child, adapterView);
+        }
+    }
+
     @Override
     public int getCount() {
         return mDataList.size();
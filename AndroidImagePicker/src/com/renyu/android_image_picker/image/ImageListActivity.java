@@ -20,8 +20,13 @@ import android.widget.AdapterView.OnItemClickListener;
 import android.widget.GridView;
 
 import com.renyu.android_image_picker.R;
+import com.renyu.android_image_picker.common.CommonUtil;
+import com.renyu.android_image_picker.common.ImageLoadTask;
+import com.renyu.android_image_picker.common.OnTaskResultListener;
 import com.renyu.android_image_picker.common.ParamsManager;
 import com.renyu.android_image_picker.crop.FinalImageActivity;
+import com.renyu.android_image_picker.model.AlbumStore;
+import com.renyu.android_image_picker.model.ImageGroup;
 
 /**
  * 某个文件夹下的所有图片列表
@@ -33,18 +38,19 @@ public class ImageListActivity extends Activity implements OnItemClickListener {
     GridView album_choice_grid=null;
     ImageListAdapter mImageAdapter=null;
     ImageView album_choice_close=null;
+    //图片扫描一般任务
+    ImageLoadTask mLoadTask=null;
     
-    ArrayList<String> mImages=null;
     String title="";
+    String dirPath=null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_photodir);
         
-        mImages=new ArrayList<String>();
-        
         title=getIntent().getStringExtra(ParamsManager.EXTRA_TITLE);
+        dirPath=getIntent().getStringExtra(ParamsManager.EXTRA_DIR_PATH);
         
         init();
     }
@@ -59,24 +65,53 @@ public class ImageListActivity extends Activity implements OnItemClickListener {
 				// TODO Auto-generated method stub
 				finish();
 			}});
-    	if (getIntent().hasExtra(ParamsManager.EXTRA_IMAGES_DATAS)) {
-            mImages=getIntent().getStringArrayListExtra(ParamsManager.EXTRA_IMAGES_DATAS);
-            setAdapter(mImages);
-        }
+    	setAdapter();
+    	
+    	final AlbumStore store=AlbumStore.getInstance();
+    	// 进程被回收后共享数据为空，重新扫描
+    	if (!store.isLoaded()&&store.getGroup(dirPath)==null) {
+    		store.clear();
+    		mLoadTask=new ImageLoadTask(this, new OnTaskResultListener() {
+    			@SuppressWarnings("unchecked")
+    			@Override
+    			public void onResult(boolean success, String error, Object result) {
+    				if(success&&result!=null&&result instanceof ArrayList) {
+    					store.setGroups((ArrayList<ImageGroup>)result, mLoadTask.getMaxId(),
+    							mLoadTask.getMaxDateModified(), mLoadTask.getImageCount());
+    				}
+    			}
+    		});
+    		CommonUtil.execute(mLoadTask);
+    	}
     }
 
-    private void setAdapter(ArrayList<String> datas) {
-        mImageAdapter=new ImageListAdapter(this, datas, album_choice_grid);
+    private void setAdapter() {
+        mImageAdapter=new ImageListAdapter(this, dirPath, album_choice_grid);
         album_choice_grid.setAdapter(mImageAdapter);
+        AlbumStore.getInstance().addOnAlbumChangeListener(mImageAdapter);
         album_choice_grid.setOnItemClickListener(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mLoadTask!=null) {
+            mLoadTask.cancel();
+        }
+        if (mImageAdapter!=null) {
+            AlbumStore.getInstance().removeOnAlbumChangeListener(mImageAdapter);
+        }
+    }
+
     @Override
     public void onItemClick(AdapterView<?> arg0, View arg1, int arg2, long arg3) {
-        System.out.println(mImages.get(arg2));
+        String path=mImageAdapter.getItem(arg2);
+        if (path==null) {
+            return;
+        }
         Intent intent=new Intent(ImageListActivity.this, FinalImageActivity.class);
 		Bundle bundle=new Bundle();
-		bundle.putString("path", mImages.get(arg2));
+		bundle.putString("path", path);
 		intent.putExtras(bundle);
 		startActivity(intent);
     }
@@ -20,16 +20,19 @@ import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
 import com.lidroid.xutils.bitmap.core.BitmapSize;
 import com.renyu.android_image_picker.R;
 import com.renyu.android_image_picker.common.BitmapHelp;
+import com.renyu.android_image_picker.model.AlbumStore;
+import com.renyu.android_image_picker.model.AlbumStore.OnAlbumChangeListener;
+import com.renyu.android_image_picker.model.ImageGroup;
 import com.renyu.android_image_picker.myview.MyImageView;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 某个图片组中图片列表适配器
  * 
  * @author likebamboo
  */
-public class ImageListAdapter extends BaseAdapter {
+public class ImageListAdapter extends BaseAdapter implements OnAlbumChangeListener {
 	
 	BitmapUtils bitmapUtils=null;;
 	BitmapDisplayConfig config=null;
@@ -40,12 +43,18 @@ public class ImageListAdapter extends BaseAdapter {
     private Context mContext = null;
 
     /**
-     * 图片列表
+     * 图片所在文件夹完整路径
      */
-    private ArrayList<String> mDataList = new ArrayList<String>();
+    private String mDirPath = null;
 
-    public ImageListAdapter(Context context, ArrayList<String> list, View container) {
-        mDataList = list;
+    /**
+     * 图片分组，直接读取进程内共享的数据，不复制路径列表
+     */
+    private ImageGroup mGroup = null;
+
+    public ImageListAdapter(Context context, String dirPath, View container) {
+        mDirPath = dirPath;
+        mGroup = AlbumStore.getInstance().getGroup(dirPath);
         mContext = context;
         
         bitmapUtils=BitmapHelp.getBitmapUtils(context);
@@ -57,17 +66,32 @@ public class ImageListAdapter extends BaseAdapter {
 		config.setLoadingDrawable(context.getResources().getDrawable(R.drawable.pic_thumb));
     }
 
+    @Override
+    public void onAlbumsChanged() {
+        // 分组可能被整体替换、删除或追加了图片
+        mGroup = AlbumStore.getInstance().getGroup(mDirPath);
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onAlbumImagesChanged(int position, ImageGroup group, List<String> inserted, List<String> removed) {
+        // 没有实际变化时不刷新；GridView的数量和位置变了，只能整体刷新可见的item
+        if (group == mGroup && (!inserted.isEmpty() || !removed.isEmpty())) {
+            notifyDataSetChanged();
+        }
+    }
+
     @Override
     public int getCount() {
-        return mDataList.size();
+        return mGroup == null ? 0 : mGroup.getImageCount();
     }
 
     @Override
     public String getItem(int position) {
-        if (position < 0 || position > mDataList.size()) {
+        if (position < 0 || position >= getCount()) {
             return null;
         }
-        return mDataList.get(position);
+        return mGroup.getImage(position);
     }
 
     @Override
@@ -14,9 +14,11 @@ import android.widget.ImageView;
 
 import com.renyu.android_image_picker.R;
 import com.renyu.android_image_picker.common.CommonUtil;
+import com.renyu.android_image_picker.common.ImageChangeObserver;
 import com.renyu.android_image_picker.common.ImageLoadTask;
-import com.renyu.android_image_picker.common.OnTaskResultListener;
+import com.renyu.android_image_picker.common.OnTaskProgressListener;
 import com.renyu.android_image_picker.common.ParamsManager;
+import com.renyu.android_image_picker.model.AlbumStore;
 import com.renyu.android_image_picker.model.ImageGroup;
 
 public class PhotoPickerActivity extends Activity implements OnItemClickListener {
@@ -26,6 +28,8 @@ public class PhotoPickerActivity extends Activity implements OnItemClickListener
     //图片扫描一般任务
     ImageLoadTask mLoadTask=null;
     ImageView album_choice_close=null;
+    //监听图片增删
+    ImageChangeObserver mObserver=null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,8 +39,23 @@ public class PhotoPickerActivity extends Activity implements OnItemClickListener
         loadImages();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // 界面关闭后不再继续扫描
+        if (mLoadTask!=null) {
+            mLoadTask.cancel();
+        }
+        mObserver.unregister();
+        AlbumStore.getInstance().removeOnAlbumChangeListener(mGroupAdapter);
+    }
+
     private void init() {
     	album_choice_grid=(GridView)findViewById(R.id.album_choice_grid);
+    	setImageAdapter(AlbumStore.getInstance().getGroups());
+    	
+    	mObserver=new ImageChangeObserver(this);
+    	mObserver.register();
     	
     	album_choice_close=(ImageView) findViewById(R.id.album_choice_close);
     	album_choice_close.setOnClickListener(new ImageView.OnClickListener() {
@@ -56,14 +75,31 @@ public class PhotoPickerActivity extends Activity implements OnItemClickListener
         if (mLoadTask!=null&&mLoadTask.getStatus()==Status.RUNNING) {
             return;
         }
+        final AlbumStore store=AlbumStore.getInstance();
+        // 已经扫描过，只查询增量
+        if (store.isLoaded()) {
+            mObserver.requestUpdate();
+            return;
+        }
+        store.clear();
+
+        mLoadTask=new ImageLoadTask(this, new OnTaskProgressListener() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void onProgress(Object progress) {
+                // 分批显示已扫描到的相册
+                if(progress!=null&&progress instanceof ArrayList) {
+                    store.appendGroups((ArrayList<ImageGroup>)progress);
+                }
+            }
 
-        mLoadTask=new ImageLoadTask(this, new OnTaskResultListener() {
             @SuppressWarnings("unchecked")
             @Override
             public void onResult(boolean success, String error, Object result) {
                 // 如果加载成功
                 if(success&&result!=null&&result instanceof ArrayList) {
-                    setImageAdapter((ArrayList<ImageGroup>)result);
+                    store.setGroups((ArrayList<ImageGroup>)result, mLoadTask.getMaxId(),
+                            mLoadTask.getMaxDateModified(), mLoadTask.getImageCount());
                 } 
             }
         });
@@ -73,6 +109,7 @@ public class PhotoPickerActivity extends Activity implements OnItemClickListener
     private void setImageAdapter(ArrayList<ImageGroup> data) {
         mGroupAdapter=new ImageGroupAdapter(this, data, album_choice_grid);
         album_choice_grid.setAdapter(mGroupAdapter);
+        AlbumStore.getInstance().addOnAlbumChangeListener(mGroupAdapter);
         album_choice_grid.setOnItemClickListener(this);
     }
 
@@ -82,10 +119,9 @@ public class PhotoPickerActivity extends Activity implements OnItemClickListener
         if (imageGroup==null) {
             return;
         }
-        ArrayList<String> childList=imageGroup.getImages();
         Intent mIntent=new Intent(PhotoPickerActivity.this, ImageListActivity.class);
         mIntent.putExtra(ParamsManager.EXTRA_TITLE, imageGroup.getDirName());
-        mIntent.putStringArrayListExtra(ParamsManager.EXTRA_IMAGES_DATAS, childList);
+        mIntent.putExtra(ParamsManager.EXTRA_DIR_PATH, imageGroup.getDirPath());
         startActivity(mIntent);
     }
 }
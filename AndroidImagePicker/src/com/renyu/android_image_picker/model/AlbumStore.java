@@ -0,0 +1,283 @@
+/**
+ * AlbumStore.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 进程内共享的相册数据
+ * <p>
+ * 所有方法都只能在UI线程中调用，后台任务的结果通过回调交给UI线程后再写入
+ */
+public class AlbumStore {
+
+    /**
+     * 相册数据变化监听
+     */
+    public interface OnAlbumChangeListener {
+        /**
+         * 分组列表结构发生变化(整体替换、新增或删除分组)
+         */
+        void onAlbumsChanged();
+
+        /**
+         * 某个分组中的图片发生变化
+         *
+         * @param position 分组位置，分组已被删除时为-1
+         * @param group 发生变化的分组
+         * @param inserted 新增图片的完整路径
+         * @param removed 删除图片的完整路径
+         */
+        void onAlbumImagesChanged(int position, ImageGroup group, List<String> inserted, List<String> removed);
+    }
+
+    private static AlbumStore instance = null;
+
+    /**
+     * 所有图片分组，引用不变，适配器可以直接持有
+     */
+    private ArrayList<ImageGroup> mGroups = new ArrayList<ImageGroup>();
+
+    /**
+     * 以文件夹路径为键的分组索引
+     */
+    private HashMap<String, ImageGroup> mIndex = new HashMap<String, ImageGroup>();
+
+    private ArrayList<OnAlbumChangeListener> mListeners = new ArrayList<OnAlbumChangeListener>();
+
+    /**
+     * 是否已经完成过一次完整扫描
+     */
+    private boolean mLoaded = false;
+
+    private long mMaxId = 0;
+
+    private long mMaxDateModified = 0;
+
+    private int mImageCount = 0;
+
+    private AlbumStore() {
+
+    }
+
+    public static AlbumStore getInstance() {
+        if (instance == null) {
+            instance = new AlbumStore();
+        }
+        return instance;
+    }
+
+    public ArrayList<ImageGroup> getGroups() {
+        return mGroups;
+    }
+
+    /**
+     * 根据文件夹路径获取分组
+     *
+     * @param dirPath
+     * @return 不存在时返回null
+     */
+    public ImageGroup getGroup(String dirPath) {
+        return mIndex.get(dirPath);
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public long getMaxId() {
+        return mMaxId;
+    }
+
+    public long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    public int getImageCount() {
+        return mImageCount;
+    }
+
+    /**
+     * 获取所有图片的_ID，按升序排列
+     *
+     * @return
+     */
+    public long[] getSortedIds() {
+        long[] ids = new long[mImageCount];
+        int size = 0;
+        for (ImageGroup group : mGroups) {
+            for (int i = 0; i < group.getImageCount() && size < ids.length; i++) {
+                ids[size++] = group.getId(i);
+            }
+        }
+        if (size < ids.length) {
+            long[] trimmed = new long[size];
+            System.arraycopy(ids, 0, trimmed, 0, size);
+            ids = trimmed;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    public void addOnAlbumChangeListener(OnAlbumChangeListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeOnAlbumChangeListener(OnAlbumChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 清空数据，重新开始扫描前调用
+     */
+    public void clear() {
+        mGroups.clear();
+        mIndex.clear();
+        mMaxId = 0;
+        mMaxDateModified = 0;
+        mImageCount = 0;
+        mLoaded = false;
+        notifyAlbumsChanged();
+    }
+
+    /**
+     * 合并扫描任务分批返回的图片分组，已存在的分组追加图片，不存在的追加到末尾
+     *
+     * @param groups 本批次新增的图片分组
+     */
+    public void appendGroups(List<ImageGroup> groups) {
+        for (ImageGroup group : groups) {
+            ImageGroup exist = mIndex.get(group.getDirPath());
+            if (exist != null) {
+                exist.addAll(group);
+            } else {
+                mIndex.put(group.getDirPath(), group);
+                mGroups.add(group);
+            }
+        }
+        notifyAlbumsChanged();
+    }
+
+    /**
+     * 用扫描完成后的完整结果替换当前数据
+     *
+     * @param groups 完整的图片分组
+     * @param maxId 已读取图片的最大_ID
+     * @param maxDateModified 已读取图片的最大DATE_MODIFIED
+     * @param imageCount 图片总数
+     */
+    public void setGroups(List<ImageGroup> groups, long maxId, long maxDateModified, int imageCount) {
+        mGroups.clear();
+        mGroups.addAll(groups);
+        mIndex.clear();
+        for (ImageGroup group : mGroups) {
+            mIndex.put(group.getDirPath(), group);
+        }
+        mMaxId = maxId;
+        mMaxDateModified = maxDateModified;
+        mImageCount = imageCount;
+        mLoaded = true;
+        notifyAlbumsChanged();
+    }
+
+    /**
+     * 应用MediaStore的增量变化，只通知发生变化的分组
+     *
+     * @param delta
+     */
+    public void applyDelta(ImageDelta delta) {
+        mMaxId = Math.max(mMaxId, delta.maxId);
+        mMaxDateModified = Math.max(mMaxDateModified, delta.maxDateModified);
+        mImageCount = delta.imageCount;
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        boolean structural = false;
+        HashMap<ImageGroup, ArrayList<String>> removedMap = new HashMap<ImageGroup, ArrayList<String>>();
+        HashMap<ImageGroup, ArrayList<String>> insertedMap = new HashMap<ImageGroup, ArrayList<String>>();
+        ArrayList<ImageGroup> changed = new ArrayList<ImageGroup>();
+
+        if (!delta.deletedIds.isEmpty()) {
+            for (ImageGroup group : mGroups) {
+                ArrayList<String> removed = null;
+                for (int i = group.getImageCount() - 1; i >= 0; i--) {
+                    if (delta.deletedIds.contains(group.getId(i))) {
+                        if (removed == null) {
+                            removed = new ArrayList<String>();
+                        }
+                        removed.add(group.getImage(i));
+                        group.removeImage(i);
+                    }
+                }
+                if (removed != null) {
+                    removedMap.put(group, removed);
+                    changed.add(group);
+                }
+            }
+        }
+
+        for (int i = 0; i < delta.insertedPaths.size(); i++) {
+            String path = delta.insertedPaths.get(i);
+            int slash = path.lastIndexOf('/');
+            String dirPath = path.substring(0, Math.max(slash, 0));
+            ImageGroup group = mIndex.get(dirPath);
+            if (group == null) {
+                group = new ImageGroup();
+                group.setDirPath(dirPath);
+                mIndex.put(dirPath, group);
+                mGroups.add(group);
+                structural = true;
+            }
+            group.addImage(delta.insertedIds.get(i), path.substring(slash + 1));
+            ArrayList<String> inserted = insertedMap.get(group);
+            if (inserted == null) {
+                inserted = new ArrayList<String>();
+                insertedMap.put(group, inserted);
+                if (!removedMap.containsKey(group)) {
+                    changed.add(group);
+                }
+            }
+            inserted.add(path);
+        }
+
+        // 移除已经没有图片的分组
+        for (ImageGroup group : changed) {
+            if (group.getImageCount() == 0) {
+                mGroups.remove(group);
+                mIndex.remove(group.getDirPath());
+                structural = true;
+            }
+        }
+
+        List<String> empty = new ArrayList<String>(0);
+        for (ImageGroup group : changed) {
+            List<String> inserted = insertedMap.get(group);
+            List<String> removed = removedMap.get(group);
+            int position = group.getImageCount() == 0 ? -1 : mGroups.indexOf(group);
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                mListeners.get(i).onAlbumImagesChanged(position, group, inserted == null ? empty : inserted,
+                        removed == null ? empty : removed);
+            }
+        }
+        if (structural) {
+            notifyAlbumsChanged();
+        }
+    }
+
+    private void notifyAlbumsChanged() {
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onAlbumsChanged();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * ImageDelta.java
+ * ImageChooser
+ * 
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * MediaStore中图片的增量变化，由后台查询生成，在UI线程中应用到{@link AlbumStore}
+ */
+public class ImageDelta extends BaseModel {
+    /**
+     * 新增图片的_ID
+     */
+    public ArrayList<Long> insertedIds = new ArrayList<Long>();
+
+    /**
+     * 新增图片的完整路径，与insertedIds一一对应
+     */
+    public ArrayList<String> insertedPaths = new ArrayList<String>();
+
+    /**
+     * 被删除图片的_ID
+     */
+    public HashSet<Long> deletedIds = new HashSet<Long>();
+
+    /**
+     * 查询后的最大_ID
+     */
+    public long maxId = 0;
+
+    /**
+     * 查询后的最大DATE_MODIFIED
+     */
+    public long maxDateModified = 0;
+
+    /**
+     * 查询后的图片总数
+     */
+    public int imageCount = 0;
+
+    public boolean isEmpty() {
+        return insertedIds.isEmpty() && deletedIds.isEmpty();
+    }
+}
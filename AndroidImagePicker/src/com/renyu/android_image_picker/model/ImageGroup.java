@@ -16,15 +16,35 @@ import java.util.ArrayList;
  * @author likebamboo
  */
 public class ImageGroup extends BaseModel {
+    /**
+     * 初始容量
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
     /**
      * 文件夹名
      */
     private String dirName = "";
 
     /**
-     * 文件夹下所有图片
+     * 文件夹完整路径，同一分组中所有图片共用，作为分组的唯一标识
+     */
+    private String dirPath = "";
+
+    /**
+     * 文件夹下所有图片的文件名，按加入顺序保存，完整路径为dirPath + "/" + 文件名
      */
-    private ArrayList<String> images = new ArrayList<String>();
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * 图片在MediaStore中的_ID，与names一一对应，未知时为-1
+     */
+    private long[] ids = new long[INITIAL_CAPACITY];
+
+    /**
+     * 图片数量
+     */
+    private int count = 0;
 
     public String getDirName() {
         return dirName;
@@ -34,14 +54,28 @@ public class ImageGroup extends BaseModel {
         this.dirName = dirName;
     }
 
+    public String getDirPath() {
+        return dirPath;
+    }
+
+    /**
+     * 设置文件夹完整路径，同时设置文件夹名
+     * 
+     * @param dirPath
+     */
+    public void setDirPath(String dirPath) {
+        this.dirPath = dirPath;
+        this.dirName = dirPath.substring(dirPath.lastIndexOf('/') + 1);
+    }
+
     /**
      * 获取第一张图片的路径(作为封面)
      * 
      * @return
      */
     public String getFirstImgPath() {
-        if (images.size() > 0) {
-            return images.get(0);
+        if (count > 0) {
+            return getImage(0);
         }
         return "";
     }
@@ -52,23 +86,136 @@ public class ImageGroup extends BaseModel {
      * @return
      */
     public int getImageCount() {
-        return images.size();
+        return count;
+    }
+
+    /**
+     * 获取指定位置图片的完整路径
+     * 
+     * @param position
+     * @return
+     */
+    public String getImage(int position) {
+        return dirPath + "/" + names[position];
+    }
+
+    /**
+     * 获取指定位置图片的文件名
+     * 
+     * @param position
+     * @return
+     */
+    public String getName(int position) {
+        return names[position];
+    }
+
+    /**
+     * 获取指定位置图片的_ID
+     * 
+     * @param position
+     * @return
+     */
+    public long getId(int position) {
+        return ids[position];
+    }
+
+    /**
+     * 查找指定_ID的图片位置
+     * 
+     * @param id
+     * @return 不存在时返回-1
+     */
+    public int indexOfId(long id) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
     }
 
+    /**
+     * 复制一个新的分组，文件名数组独立，可以交给其他线程使用
+     * 
+     * @return
+     */
+    public ImageGroup copy() {
+        ImageGroup group = new ImageGroup();
+        group.dirName = dirName;
+        group.dirPath = dirPath;
+        group.names = new String[Math.max(count, INITIAL_CAPACITY)];
+        System.arraycopy(names, 0, group.names, 0, count);
+        group.ids = new long[group.names.length];
+        System.arraycopy(ids, 0, group.ids, 0, count);
+        group.count = count;
+        return group;
+    }
+
+    /**
+     * 获取所有图片的完整路径，每次调用都会重新生成列表
+     * 
+     * @return
+     */
     public ArrayList<String> getImages() {
+        ArrayList<String> images = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            images.add(getImage(i));
+        }
         return images;
     }
 
     /**
-     * 添加一张图片
+     * 添加一张图片，图片必须位于该分组的文件夹下
      * 
-     * @param image
+     * @param image 图片完整路径
      */
     public void addImage(String image) {
-        if (images == null) {
-            images = new ArrayList<String>();
+        addImage(-1, image.substring(image.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * 添加一张图片
+     * 
+     * @param id 图片_ID
+     * @param name 图片文件名
+     */
+    public void addImage(long id, String name) {
+        if (count == names.length) {
+            String[] newNames = new String[count << 1];
+            System.arraycopy(names, 0, newNames, 0, count);
+            names = newNames;
+            long[] newIds = new long[count << 1];
+            System.arraycopy(ids, 0, newIds, 0, count);
+            ids = newIds;
+        }
+        names[count] = name;
+        ids[count] = id;
+        count++;
+    }
+
+    /**
+     * 移除指定位置的图片
+     * 
+     * @param position
+     */
+    public void removeImage(int position) {
+        int moved = count - position - 1;
+        if (moved > 0) {
+            System.arraycopy(names, position + 1, names, position, moved);
+            System.arraycopy(ids, position + 1, ids, position, moved);
+        }
+        names[--count] = null;
+    }
+
+    /**
+     * 追加另一个同文件夹分组中的所有图片
+     * 
+     * @param other
+     */
+    public void addAll(ImageGroup other) {
+        for (int i = 0; i < other.count; i++) {
+            addImage(other.ids[i], other.names[i]);
         }
-        images.add(image);
     }
 
     @Override
@@ -81,13 +228,18 @@ public class ImageGroup extends BaseModel {
      * <p>
      * 重写该方法
      * <p>
-     * 使只要图片所在的文件夹名称(dirName)相同就属于同一个图片组
+     * 使只要图片所在的文件夹路径(dirPath)相同就属于同一个图片组
      */
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof ImageGroup)) {
             return false;
         }
-        return dirName.equals(((ImageGroup)o).dirName);
+        return dirPath.equals(((ImageGroup)o).dirPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return dirPath.hashCode();
     }
 }
@@ -1,16 +1,20 @@
 package com.renyu.android_image_picker.myview;
 
 import com.renyu.android_image_picker.crop.FloatDrawable;
+import com.renyu.android_image_picker.crop.TiledImageDrawable;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Region;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -34,6 +38,11 @@ public class CropImageView3 extends View {
 	
 	private int mStatus=STATUS_Touch_SINGLE;
 	
+	//双指缩放时两指间的距离
+	private float oldDistance=0;
+	//最大放大到原图一个像素占屏幕两个像素
+	private final int MAX_ZOOM_PIXEL=2;
+	
 	//默认的裁剪图片宽度与高度
 	private final int defaultCropWidth=200;
 	private final int defaultCropHeight=200;
@@ -60,6 +69,10 @@ public class CropImageView3 extends View {
 	protected boolean isFrist=true;
 	private boolean isTouchInSquare=true;
 	
+	protected String mImagePath;//原图路径，裁剪时从原图按区域解码
+	protected int mImageWidth=0;//原图宽度
+	protected int mImageHeight=0;//原图高度
+	
 	protected Context mContext;
 	
 	public CropImageView3(Context context) {
@@ -82,7 +95,8 @@ public class CropImageView3 extends View {
 	{
 		this.mContext=context;
 		try {  
-            if(android.os.Build.VERSION.SDK_INT>=11)  
+            //4.3以下硬件加速不支持Region.Op.DIFFERENCE
+            if(android.os.Build.VERSION.SDK_INT>=11&&android.os.Build.VERSION.SDK_INT<18)  
             {  
             	this.setLayerType(LAYER_TYPE_SOFTWARE, null);  
             }  
@@ -94,13 +108,31 @@ public class CropImageView3 extends View {
 
 	public void setDrawable(Drawable mDrawable,int cropWidth,int cropHeight)
 	{
+		recycleDrawable();
 		this.mDrawable=mDrawable;
+		if(mDrawable!=null)
+		{
+			mDrawable.setCallback(this);
+		}
 		this.cropWidth=cropWidth;
 		this.cropHeight=cropHeight;
 		this.isFrist=true;
 		invalidate();
 	}
 	
+	/**
+	 * 设置原图，mDrawable只是缩小后的预览图
+	 * @param imagePath
+	 * @param imageWidth 原图宽度
+	 * @param imageHeight 原图高度
+	 */
+	public void setImagePath(String imagePath,int imageWidth,int imageHeight)
+	{
+		this.mImagePath=imagePath;
+		this.mImageWidth=imageWidth;
+		this.mImageHeight=imageHeight;
+	}
+	
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
 		
@@ -109,6 +141,7 @@ public class CropImageView3 extends View {
 			if(mStatus==STATUS_Touch_SINGLE)
 			{
 				mStatus=STATUS_TOUCH_MULTI_START;
+				oldDistance=getDistance(event);
 			}
 			else if(mStatus==STATUS_TOUCH_MULTI_START)
 			{
@@ -152,7 +185,12 @@ Log.v("currentEdge："+currentEdge, "-------");
 			case MotionEvent.ACTION_MOVE:
 				if(mStatus==STATUS_TOUCH_MULTI_TOUCHING)
 				{
-					
+					float distance=getDistance(event);
+					if(oldDistance>0&&distance>0)
+					{
+						zoom(distance/oldDistance, (event.getX(0)+event.getX(1))/2, (event.getY(0)+event.getY(1))/2);
+					}
+					oldDistance=distance;
 				}
 				else if(mStatus==STATUS_Touch_SINGLE)
 				{
@@ -190,6 +228,9 @@ Log.v("currentEdge："+currentEdge, "-------");
 									break;
 
 								case EDGE_MOVE_OUT:
+									//放大后拖动图片
+									mDrawableDst.offset(dx, dy);
+									checkImageBounds();
 									break;
 						}
 						mDrawableFloat.sort();
@@ -334,30 +375,272 @@ Log.v("currentEdge："+currentEdge, "-------");
 		}
 	}
 	
+	/**
+	 * 在主线程中记录裁剪需要的状态，之后手势再修改选择框和图片位置也不会影响这次裁剪
+	 * @return
+	 */
+	public CropSpec captureCropSpec()
+	{
+		Bitmap preview=null;
+		if(mDrawable instanceof TiledImageDrawable)
+		{
+			preview=((TiledImageDrawable) mDrawable).getBaseBitmap();
+		}
+		else if(mDrawable instanceof BitmapDrawable)
+		{
+			preview=((BitmapDrawable) mDrawable).getBitmap();
+		}
+		return new CropSpec(this, preview);
+	}
+	
+	/**
+	 * 只能在主线程调用，后台线程使用{@link #getCropImage(CropSpec)}
+	 * @return
+	 */
 	public Bitmap getCropImage()
 	{
+		return getCropImage(captureCropSpec());
+	}
+	
+	/**
+	 * 按记录的状态裁剪，不访问控件，可以在后台线程调用
+	 * @param spec
+	 * @return
+	 */
+	public static Bitmap getCropImage(CropSpec spec)
+	{
+		if(spec.imagePath!=null&&android.os.Build.VERSION.SDK_INT>=10)
+		{
+			Bitmap ret=getCropImageFromSource(spec);
+			if(ret!=null)
+			{
+				return ret;
+			}
+		}
+		if(spec.preview==null||spec.drawableDst.width()<=0||spec.drawableFloat.width()<=0)
+		{
+			return null;
+		}
 		try {
-			Bitmap tmpBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Config.RGB_565);
-			Canvas canvas = new Canvas(tmpBitmap);
-			mDrawable.draw(canvas);
-
-			Matrix matrix=new Matrix();
-			float scale=(float)(mDrawableSrc.width())/(float)(mDrawableDst.width());
-			matrix.postScale(scale, scale);
-			
-		    Bitmap ret = Bitmap.createBitmap(tmpBitmap, mDrawableFloat.left, mDrawableFloat.top, mDrawableFloat.width(), mDrawableFloat.height(), matrix, true);
-		    tmpBitmap.recycle();
-		    tmpBitmap=null;
-		    
+			//和屏幕上看到的一样，把预览图画到记录的位置后截取选择框
+			float scale=(float)(spec.drawableSrc.width())/(float)(spec.drawableDst.width());
+			int outWidth=Math.max(1, Math.round(spec.drawableFloat.width()*scale));
+			int outHeight=Math.max(1, Math.round(spec.drawableFloat.height()*scale));
+			Bitmap ret=Bitmap.createBitmap(outWidth, outHeight, Config.RGB_565);
+			Canvas canvas=new Canvas(ret);
+			canvas.scale(scale, scale);
+			canvas.translate(-spec.drawableFloat.left, -spec.drawableFloat.top);
+			canvas.drawBitmap(spec.preview, null, spec.drawableDst, new Paint(Paint.FILTER_BITMAP_FLAG));
 			return ret;
 		} catch(Exception e) {
 			return null;
 		}
+	}
+    
+	/**
+	 * 把选择框映射回原图坐标，用BitmapRegionDecoder只解码选中的区域，输出尺寸与选择框相同
+	 * @return
+	 */
+	private static Bitmap getCropImageFromSource(CropSpec spec)
+	{
+		Rect drawableDst=spec.drawableDst;
+		Rect drawableFloat=spec.drawableFloat;
+		int imageWidth=spec.imageWidth;
+		int imageHeight=spec.imageHeight;
+		if(imageWidth<=0||imageHeight<=0||drawableDst.width()<=0||drawableDst.height()<=0
+				||drawableFloat.width()<=0||drawableFloat.height()<=0)
+		{
+			return null;
+		}
+		//选择框超出图片时先平移回图片内，仍然放不下时按比例缩小，保证输出的宽高比不变
+		Rect frame=new Rect(drawableFloat);
+		float fit=Math.min(1f, Math.min((float)drawableDst.width()/(float)frame.width(),
+				(float)drawableDst.height()/(float)frame.height()));
+		if(fit<1f)
+		{
+			int width=Math.max(1, (int)(frame.width()*fit));
+			int height=Math.max(1, (int)(frame.height()*fit));
+			frame.set(frame.centerX()-width/2, frame.centerY()-height/2,
+					frame.centerX()-width/2+width, frame.centerY()-height/2+height);
+		}
+		frame.offset(Math.max(0, drawableDst.left-frame.left)-Math.max(0, frame.right-drawableDst.right),
+				Math.max(0, drawableDst.top-frame.top)-Math.max(0, frame.bottom-drawableDst.bottom));
+
+		float scaleX=(float)imageWidth/(float)drawableDst.width();
+		float scaleY=(float)imageHeight/(float)drawableDst.height();
+		Rect region=new Rect(
+				(int)((frame.left-drawableDst.left)*scaleX),
+				(int)((frame.top-drawableDst.top)*scaleY),
+				(int)((frame.right-drawableDst.left)*scaleX),
+				(int)((frame.bottom-drawableDst.top)*scaleY));
+		//只修正浮点误差带来的一两个像素
+		if(!region.intersect(0, 0, imageWidth, imageHeight))
+		{
+			return null;
+		}
+		int outWidth=drawableFloat.width();
+		int outHeight=drawableFloat.height();
+
+		BitmapFactory.Options options=new BitmapFactory.Options();
+		options.inPreferredConfig=Config.RGB_565;
+		//采样到不小于输出尺寸为止
+		int inSampleSize=1;
+		while(region.width()/(inSampleSize*2)>=outWidth&&region.height()/(inSampleSize*2)>=outHeight)
+		{
+			inSampleSize*=2;
+		}
+		options.inSampleSize=inSampleSize;
+		Bitmap regionBitmap=decodeRegion(spec, region, options);
+		if(regionBitmap==null)
+		{
+			return null;
+		}
+		if(regionBitmap.getWidth()==outWidth&&regionBitmap.getHeight()==outHeight)
+		{
+			return regionBitmap;
+		}
+		Bitmap ret=Bitmap.createScaledBitmap(regionBitmap, outWidth, outHeight, true);
+		if(ret!=regionBitmap)
+		{
+			regionBitmap.recycle();
+		}
+		return ret;
+	}
+
+	/**
+	 * 优先使用分块显示已经打开的解码器，避免每次裁剪都重新打开原图
+	 */
+	private static Bitmap decodeRegion(CropSpec spec, Rect region, BitmapFactory.Options options)
+	{
+		if(spec.tiledDrawable!=null)
+		{
+			Bitmap bitmap=spec.tiledDrawable.decodeRegion(region, options);
+			if(bitmap!=null)
+			{
+				return bitmap;
+			}
+		}
+		BitmapRegionDecoder decoder=null;
+		try {
+			decoder=BitmapRegionDecoder.newInstance(spec.imagePath, false);
+			return decoder.decodeRegion(region, options);
+		} catch(Exception e) {
+			return null;
+		} finally {
+			if(decoder!=null)
+			{
+				decoder.recycle();
+			}
+		}
+	}
+    
+	private float getDistance(MotionEvent event)
+	{
+		if(event.getPointerCount()<2)
+		{
+			return 0;
+		}
+		float x=event.getX(0)-event.getX(1);
+		float y=event.getY(0)-event.getY(1);
+		return (float) Math.sqrt(x*x+y*y);
+	}
+	
+	/**
+	 * 以(centerX,centerY)为中心缩放图片，最小为初始大小
+	 */
+	protected void zoom(float factor, float centerX, float centerY)
+	{
+		if(mDrawable==null||mDrawableDst.width()<=0)
+		{
+			return;
+		}
+		int imageWidth=mImageWidth>0?mImageWidth:mDrawable.getIntrinsicWidth();
+		int maxWidth=Math.max(mDrawableSrc.width(), imageWidth*MAX_ZOOM_PIXEL);
+		float newWidth=Math.max(mDrawableSrc.width(), Math.min(maxWidth, mDrawableDst.width()*factor));
+		factor=newWidth/mDrawableDst.width();
+		float newHeight=mDrawableDst.height()*factor;
 		
+		float left=centerX-(centerX-mDrawableDst.left)*factor;
+		float top=centerY-(centerY-mDrawableDst.top)*factor;
+		mDrawableDst.set(Math.round(left), Math.round(top), Math.round(left+newWidth), Math.round(top+newHeight));
+		checkImageBounds();
+		invalidate();
+	}
+	
+	/**
+	 * 图片比控件小时居中，比控件大时不留空白
+	 */
+	protected void checkImageBounds()
+	{
+		int left=mDrawableDst.left;
+		int top=mDrawableDst.top;
+		if(mDrawableDst.width()<=getWidth())
+		{
+			left=(getWidth()-mDrawableDst.width())/2;
+		}
+		else
+		{
+			left=Math.min(0, Math.max(getWidth()-mDrawableDst.width(), left));
+		}
+		if(mDrawableDst.height()<=getHeight())
+		{
+			top=(getHeight()-mDrawableDst.height())/2;
+		}
+		else
+		{
+			top=Math.min(0, Math.max(getHeight()-mDrawableDst.height(), top));
+		}
+		mDrawableDst.offsetTo(left, top);
+	}
+	
+	@Override
+	protected boolean verifyDrawable(Drawable who) {
+		return who==mDrawable||super.verifyDrawable(who);
+	}
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		recycleDrawable();
+	}
+	
+	private void recycleDrawable()
+	{
+		if(mDrawable instanceof TiledImageDrawable)
+		{
+			((TiledImageDrawable) mDrawable).recycle();
+		}
 	}
     
     public int dipTopx(Context context, float dpValue) {  
         final float scale = context.getResources().getDisplayMetrics().density;  
        return (int) (dpValue * scale + 0.5f);  
     }
+    
+	/**
+	 * 裁剪时的选择框、图片位置和原图信息，创建后不再修改
+	 */
+	public static final class CropSpec
+	{
+		private final Rect drawableSrc;
+		private final Rect drawableDst;
+		private final Rect drawableFloat;
+		private final String imagePath;
+		private final int imageWidth;
+		private final int imageHeight;
+		private final TiledImageDrawable tiledDrawable;//解码器可以在任意线程使用
+		private final Bitmap preview;
+		
+		private CropSpec(CropImageView3 view, Bitmap preview)
+		{
+			this.drawableSrc=new Rect(view.mDrawableSrc);
+			this.drawableDst=new Rect(view.mDrawableDst);
+			this.drawableFloat=new Rect(view.mDrawableFloat);
+			this.imagePath=view.mImagePath;
+			this.imageWidth=view.mImageWidth;
+			this.imageHeight=view.mImageHeight;
+			this.tiledDrawable=view.mDrawable instanceof TiledImageDrawable?(TiledImageDrawable) view.mDrawable:null;
+			this.preview=preview;
+		}
+	}
 }
@@ -0,0 +1,385 @@
+/**
+ * ResumableUploaderTest.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 用本地HTTP服务器模拟上传接口，验证{@link ResumableUploader}的断点续传
+ * <p>
+ * 在JVM上直接运行。编译时需要android.jar（FileUtil引用了Android的类，指定日志目录的构造方法不会加载它），
+ * 运行时需要真正的org.json，android.jar中的只是桩：
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out -cp android.jar:json.jar -sourcepath AndroidImagePicker/src:library_xUtils/src \
+ *     AndroidImagePicker/tests/com/renyu/android_image_picker/common/ResumableUploaderTest.java
+ * java -cp out:json.jar com.renyu.android_image_picker.common.ResumableUploaderTest
+ * </pre>
+ */
+public class ResumableUploaderTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    // 11个分块，最后一块不满
+    private static final int FILE_LENGTH = 10 * CHUNK_SIZE + 100;
+
+    private static final int CHUNK_COUNT = 11;
+
+    private static final int MAGIC = 0x52555044;
+
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4;
+
+    public static void main(String[] args) throws Exception {
+        check((FILE_LENGTH + CHUNK_SIZE - 1) / CHUNK_SIZE == CHUNK_COUNT, "chunk count");
+        File dir = createTempDir();
+        File file = new File(dir, "image.jpg");
+        byte[] content = new byte[FILE_LENGTH];
+        new Random(1).nextBytes(content);
+        writeFile(file, content);
+
+        StandInServer server = new StandInServer();
+        try {
+            testResumeAfterDroppedConnection(server, file, new File(dir, "journal1"));
+            testUnacknowledgedMd5IsResent(server, file, new File(dir, "journal2"));
+            testOutOfRangeIndexDiscardsJournal(server, file, new File(dir, "journal3"));
+        } finally {
+            server.stop();
+            deleteRecursively(dir);
+        }
+        System.out.println("ResumableUploaderTest passed");
+    }
+
+    /**
+     * 连接在上传中途断开，续传时只上传未确认的分块；日志末尾只写了一半的记录会被截掉
+     */
+    private static void testResumeAfterDroppedConnection(StandInServer server, File file, File journalDir)
+            throws Exception {
+        server.reset();
+        server.dropAfter = 4;
+        try {
+            newUploader(server, file, journalDir).upload();
+            fail("upload should fail when the connection drops");
+        } catch (IOException expected) {
+        }
+        BitSet acked = readAckedChunks(journalDir);
+        check(acked.cardinality() == 4, "4 chunks acknowledged before the drop, got " + acked);
+
+        // 进程在写日志时被杀，留下半条记录
+        appendToJournal(journalDir, new byte[] {
+                0, 0
+        });
+
+        server.dropAfter = Integer.MAX_VALUE;
+        server.received.clear();
+        String response = newUploader(server, file, journalDir).upload();
+        check("ok".equals(response), "complete response: " + response);
+        check(server.received.size() == CHUNK_COUNT - 4, "resent " + server.received);
+        for (Integer index : server.received) {
+            check(!acked.get(index), "acknowledged chunk " + index + " was uploaded again");
+        }
+        check(journalFile(journalDir) == null, "journal is deleted after completion");
+        check(server.isComplete(content(file)), "server has the whole file");
+    }
+
+    /**
+     * 服务器返回的MD5与本地不一致时分块不算确认，续传时重新上传
+     */
+    private static void testUnacknowledgedMd5IsResent(StandInServer server, File file, File journalDir)
+            throws Exception {
+        server.reset();
+        server.badMd5Index = 2;
+        try {
+            newUploader(server, file, journalDir).upload();
+            fail("upload should fail when a chunk is not acknowledged");
+        } catch (IOException expected) {
+        }
+        BitSet acked = readAckedChunks(journalDir);
+        check(!acked.get(2), "chunk with a wrong MD5 must not be journaled");
+
+        server.badMd5Index = -1;
+        server.received.clear();
+        newUploader(server, file, journalDir).upload();
+        check(server.received.contains(2), "chunk 2 resent");
+        check(server.received.size() == CHUNK_COUNT - acked.cardinality(), "resent " + server.received);
+        for (Integer index : server.received) {
+            check(!acked.get(index), "acknowledged chunk " + index + " was uploaded again");
+        }
+        check(server.isComplete(content(file)), "server has the whole file");
+    }
+
+    /**
+     * 日志中的序号超出分块数时说明日志已损坏，整个文件重新上传
+     */
+    private static void testOutOfRangeIndexDiscardsJournal(StandInServer server, File file, File journalDir)
+            throws Exception {
+        server.reset();
+        server.dropAfter = 1;
+        try {
+            newUploader(server, file, journalDir).upload();
+            fail("upload should fail when the connection drops");
+        } catch (IOException expected) {
+        }
+        check(readAckedChunks(journalDir).cardinality() == 1, "1 chunk acknowledged before the drop");
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        new DataOutputStream(record).writeInt(CHUNK_COUNT + 7);
+        appendToJournal(journalDir, record.toByteArray());
+
+        server.dropAfter = Integer.MAX_VALUE;
+        server.received.clear();
+        newUploader(server, file, journalDir).upload();
+        check(server.received.size() == CHUNK_COUNT, "all chunks uploaded again, got " + server.received);
+        check(server.isComplete(content(file)), "server has the whole file");
+    }
+
+    private static ResumableUploader newUploader(StandInServer server, File file, File journalDir) {
+        ResumableUploader uploader = new ResumableUploader(server.getUrl(), file, journalDir);
+        uploader.setChunkSize(CHUNK_SIZE);
+        // 一个线程依次上传，断开的位置是确定的
+        uploader.setConcurrency(1);
+        uploader.setMaxRetries(0);
+        uploader.setTimeout(5000, 5000);
+        return uploader;
+    }
+
+    /**
+     * 模拟上传接口：记录收到的分块，按需断开连接或返回错误的MD5
+     */
+    private static class StandInServer implements HttpHandler {
+
+        private final HttpServer server;
+
+        private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+
+        private final byte[][] chunks = new byte[CHUNK_COUNT][];
+
+        private volatile int dropAfter = Integer.MAX_VALUE;
+
+        private volatile int badMd5Index = -1;
+
+        private volatile boolean md5HeaderMismatch = false;
+
+        private int chunkRequests = 0;
+
+        StandInServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/upload", this);
+            server.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/upload?user=test";
+        }
+
+        synchronized void reset() {
+            received.clear();
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = null;
+            }
+            chunkRequests = 0;
+            dropAfter = Integer.MAX_VALUE;
+            badMd5Index = -1;
+            md5HeaderMismatch = false;
+        }
+
+        synchronized boolean isComplete(byte[] content) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] chunk : chunks) {
+                if (chunk == null) {
+                    return false;
+                }
+                out.write(chunk, 0, chunk.length);
+            }
+            return !md5HeaderMismatch && Arrays.equals(out.toByteArray(), content);
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getQuery();
+            byte[] body = readAll(exchange.getRequestBody());
+            if ("1".equals(param(query, "complete"))) {
+                boolean complete;
+                synchronized (this) {
+                    complete = true;
+                    for (byte[] chunk : chunks) {
+                        complete &= chunk != null;
+                    }
+                }
+                respond(exchange, complete ? 200 : 500, complete ? "ok" : "missing chunks");
+                return;
+            }
+
+            int index = Integer.parseInt(param(query, "index"));
+            synchronized (this) {
+                if (++chunkRequests > dropAfter) {
+                    // 不返回响应，抛出异常后服务器直接关闭连接，客户端读到EOF
+                    throw new IOException("connection dropped by the stand-in server");
+                }
+                chunks[index] = body;
+            }
+            received.add(index);
+            String md5 = md5Hex(body);
+            if (!md5.equals(exchange.getRequestHeaders().getFirst("X-Chunk-MD5"))) {
+                md5HeaderMismatch = true;
+            }
+            if (index == badMd5Index) {
+                md5 = "00000000000000000000000000000000";
+            }
+            respond(exchange, 200, "{\"md5\":\"" + md5 + "\"}");
+        }
+
+        private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+
+        private static String param(String query, String name) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                    return pair.substring(eq + 1);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static File journalFile(File journalDir) {
+        File[] files = journalDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".upload")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static BitSet readAckedChunks(File journalDir) throws IOException {
+        File journal = journalFile(journalDir);
+        check(journal != null, "journal exists after a failed upload");
+        DataInputStream in = new DataInputStream(new FileInputStream(journal));
+        try {
+            check(in.readInt() == MAGIC, "journal magic");
+            in.skipBytes(HEADER_LENGTH - 4);
+            BitSet acked = new BitSet();
+            for (long i = HEADER_LENGTH; i + 4 <= journal.length(); i += 4) {
+                acked.set(in.readInt());
+            }
+            return acked;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void appendToJournal(File journalDir, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(journalFile(journalDir), true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] content(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String md5Hex(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("uploader", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("can not create " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void fail(String message) {
+        throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * ImageGroupTest.java
+ * ImageChooser
+ *
+ * Copyright (c) 1998-2014 http://likebamboo.github.io/ All rights reserved.
+ */
+
+package com.renyu.android_image_picker.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * 验证{@link ImageGroup}的文件名数组和按文件夹路径的相等判断，并比较按路径建索引分组与逐个比较分组的耗时
+ * <p>
+ * 分组的写法与ImageLoadTask.addImage相同。只依赖JDK，在JVM上直接运行：
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out -sourcepath AndroidImagePicker/src \
+ *     AndroidImagePicker/tests/com/renyu/android_image_picker/model/ImageGroupTest.java
+ * java -cp out com.renyu.android_image_picker.model.ImageGroupTest
+ * </pre>
+ */
+public class ImageGroupTest {
+
+    private static final int FOLDERS = 500;
+
+    private static final int IMAGES = 50000;
+
+    public static void main(String[] args) {
+        testImages();
+        testRemoveAndCopy();
+        testEquality();
+        testGrouping();
+        System.out.println("ImageGroupTest passed");
+    }
+
+    private static void testImages() {
+        ImageGroup group = new ImageGroup();
+        group.setDirPath("/sdcard/DCIM/Camera");
+        check("Camera".equals(group.getDirName()), "dirName " + group.getDirName());
+        check("".equals(group.getFirstImgPath()), "empty group has no cover");
+
+        // 超过初始容量，数组需要扩容
+        for (int i = 0; i < 100; i++) {
+            group.addImage(1000 + i, "IMG_" + i + ".jpg");
+        }
+        group.addImage("/sdcard/DCIM/Camera/extra.jpg");
+        check(group.getImageCount() == 101, "count " + group.getImageCount());
+        check("/sdcard/DCIM/Camera/IMG_0.jpg".equals(group.getFirstImgPath()), "cover " + group.getFirstImgPath());
+        for (int i = 0; i < 100; i++) {
+            check(("/sdcard/DCIM/Camera/IMG_" + i + ".jpg").equals(group.getImage(i)), "path " + i);
+            check(group.getId(i) == 1000 + i, "id " + i);
+        }
+        check("extra.jpg".equals(group.getName(100)) && group.getId(100) == -1, "image added by path");
+        check(group.indexOfId(1042) == 42 && group.indexOfId(5) == -1, "indexOfId");
+
+        ArrayList<String> images = group.getImages();
+        check(images.size() == 101 && images.get(7).equals(group.getImage(7)), "getImages");
+    }
+
+    private static void testRemoveAndCopy() {
+        ImageGroup group = new ImageGroup();
+        group.setDirPath("/sdcard/Pictures");
+        for (int i = 0; i < 10; i++) {
+            group.addImage(i, i + ".jpg");
+        }
+        group.removeImage(3);
+        group.removeImage(group.getImageCount() - 1);
+        check(group.getImageCount() == 8, "count after remove " + group.getImageCount());
+        check("4.jpg".equals(group.getName(3)) && group.getId(3) == 4, "later images move up");
+        check(group.indexOfId(3) == -1 && group.indexOfId(9) == -1, "removed ids");
+
+        ImageGroup copy = group.copy();
+        copy.addImage(20, "20.jpg");
+        copy.removeImage(0);
+        check(group.getImageCount() == 8 && "0.jpg".equals(group.getName(0)), "copy shares the arrays");
+        check(copy.getImageCount() == 8 && "1.jpg".equals(copy.getName(0)), "copy content");
+        check(copy.equals(group), "copy is the same folder");
+
+        ImageGroup merged = new ImageGroup();
+        merged.setDirPath("/sdcard/Pictures");
+        merged.addAll(group);
+        merged.addAll(copy);
+        check(merged.getImageCount() == 16 && merged.getId(8) == 1, "addAll");
+    }
+
+    private static void testEquality() {
+        ImageGroup camera = new ImageGroup();
+        camera.setDirPath("/sdcard/DCIM/Camera");
+        ImageGroup sameFolder = new ImageGroup();
+        sameFolder.setDirPath("/sdcard/DCIM/Camera");
+        sameFolder.addImage(1, "a.jpg");
+        ImageGroup sameName = new ImageGroup();
+        sameName.setDirPath("/storage/extSdCard/DCIM/Camera");
+
+        check(camera.equals(sameFolder) && camera.hashCode() == sameFolder.hashCode(), "same folder");
+        check(!camera.equals(sameName), "folders with the same name in different places are merged");
+
+        HashSet<ImageGroup> set = new HashSet<ImageGroup>();
+        set.add(camera);
+        set.add(sameFolder);
+        set.add(sameName);
+        check(set.size() == 2, "hash set of groups " + set.size());
+    }
+
+    /**
+     * 两种分组方式的结果必须一致，按路径建索引不随分组数量变慢
+     */
+    private static void testGrouping() {
+        String[] paths = createPaths(new Random(3));
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            ArrayList<ImageGroup> indexed = groupByIndex(paths);
+            long indexTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ArrayList<ImageGroup> scanned = groupByScan(paths);
+            long scanTime = System.nanoTime() - start;
+
+            check(indexed.size() == scanned.size(), "group count " + indexed.size() + ", " + scanned.size());
+            for (int i = 0; i < indexed.size(); i++) {
+                ImageGroup a = indexed.get(i);
+                ImageGroup b = scanned.get(i);
+                check(a.equals(b) && a.getImageCount() == b.getImageCount(), "group " + a.getDirPath());
+                for (int j = 0; j < a.getImageCount(); j++) {
+                    check(a.getImage(j).equals(b.getImage(j)), "image " + j + " of " + a.getDirPath());
+                }
+            }
+            if (round == 2) {
+                System.out.println(IMAGES + " images in " + indexed.size() + " folders: index "
+                        + indexTime / 1000000 + "ms, scan " + scanTime / 1000000 + "ms");
+                check(indexTime < scanTime, "grouping by index is not faster than scanning");
+            }
+        }
+    }
+
+    /**
+     * 与ImageLoadTask.addImage相同：按文件夹路径查找分组，连续同文件夹的图片复用上一个路径字符串
+     */
+    private static ArrayList<ImageGroup> groupByIndex(String[] paths) {
+        ArrayList<ImageGroup> groups = new ArrayList<ImageGroup>();
+        HashMap<String, ImageGroup> index = new HashMap<String, ImageGroup>();
+        String lastDirPath = null;
+        for (int i = 0; i < paths.length; i++) {
+            String path = paths[i];
+            int slash = path.lastIndexOf('/');
+            String dirPath;
+            if (lastDirPath != null && slash == lastDirPath.length() && path.startsWith(lastDirPath)) {
+                dirPath = lastDirPath;
+            } else {
+                dirPath = path.substring(0, Math.max(slash, 0));
+                lastDirPath = dirPath;
+            }
+            ImageGroup group = index.get(dirPath);
+            if (group == null) {
+                group = new ImageGroup();
+                group.setDirPath(dirPath);
+                index.put(dirPath, group);
+                groups.add(group);
+            }
+            group.addImage(i, path.substring(slash + 1));
+        }
+        return groups;
+    }
+
+    /**
+     * 原来的写法：每张图片新建一个分组，用indexOf逐个比较已有的分组
+     */
+    private static ArrayList<ImageGroup> groupByScan(String[] paths) {
+        ArrayList<ImageGroup> groups = new ArrayList<ImageGroup>();
+        for (int i = 0; i < paths.length; i++) {
+            String path = paths[i];
+            ImageGroup item = new ImageGroup();
+            item.setDirPath(path.substring(0, path.lastIndexOf('/')));
+            int searchIdx = groups.indexOf(item);
+            if (searchIdx >= 0) {
+                groups.get(searchIdx).addImage(i, path.substring(path.lastIndexOf('/') + 1));
+            } else {
+                item.addImage(i, path.substring(path.lastIndexOf('/') + 1));
+                groups.add(item);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * MediaStore按修改时间返回，同一文件夹的图片大多连续出现
+     */
+    private static String[] createPaths(Random random) {
+        String[] paths = new String[IMAGES];
+        int folder = 0;
+        for (int i = 0; i < IMAGES; i++) {
+            if (random.nextInt(20) == 0) {
+                folder = random.nextInt(FOLDERS);
+            }
+            paths[i] = "/storage/emulated/0/Pictures/album" + folder + "/IMG_" + i + ".jpg";
+        }
+        return paths;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
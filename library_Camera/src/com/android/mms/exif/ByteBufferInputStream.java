@@ -45,4 +45,19 @@ class ByteBufferInputStream extends InputStream {
         mBuf.get(bytes, off, len);
         return len;
     }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skip = (int) Math.min(n, mBuf.remaining());
+        mBuf.position(mBuf.position() + skip);
+        return skip;
+    }
+
+    @Override
+    public int available() {
+        return mBuf.remaining();
+    }
 }
@@ -221,7 +221,10 @@ public class ExifParser {
         }
         mIfd0Position = (int) offset;
         mIfdType = IfdId.TYPE_IFD_0;
-        if (isIfdRequested(IfdId.TYPE_IFD_0) || needToParseOffsetsInCurrentIfd()) {
+        // IFD0 must be walked even when only the thumbnail is requested,
+        // since the link to IFD1 is stored at its end.
+        if (isIfdRequested(IfdId.TYPE_IFD_0) || needToParseOffsetsInCurrentIfd()
+                || isThumbnailRequested()) {
             registerIfd(IfdId.TYPE_IFD_0, offset);
             if (offset != DEFAULT_IFD0_OFFSET) {
                 mDataAboveIfd0 = new byte[(int) offset - DEFAULT_IFD0_OFFSET];
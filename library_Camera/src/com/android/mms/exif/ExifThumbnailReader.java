@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Extracts the compressed thumbnail stored in IFD1 of a JPEG file without
+ * building an {@link ExifData}.
+ * <p>
+ * Only the head of the file is read, since the APP1 segment carrying the EXIF
+ * data (and so the thumbnail) can not be larger than 64KB. The parser is run
+ * with {@link ExifParser#OPTION_THUMBNAIL} only, so IFD0 is skipped and no tag
+ * value other than the thumbnail offset and length is read.
+ * <p>
+ * This class is thread safe.
+ */
+public class ExifThumbnailReader {
+    private static final String TAG = "ExifThumbnailReader";
+
+    /**
+     * Number of bytes read from the head of the file.
+     */
+    public static final int MAX_READ_SIZE = 64 * 1024;
+
+    // Only used for the tag definitions, which are read-only once initialized.
+    private static final ExifInterface sInterface = new ExifInterface();
+
+    static {
+        sInterface.getTagInfo();
+    }
+
+    private static final ThreadLocal<ByteBuffer> sBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_READ_SIZE);
+        }
+    };
+
+    private ExifThumbnailReader() {
+    }
+
+    /**
+     * Reads the compressed thumbnail of the given JPEG file.
+     *
+     * @param path the path of the JPEG file.
+     * @return the JPEG bytes of the thumbnail, or null if the file has no
+     *         compressed thumbnail within its first {@link #MAX_READ_SIZE}
+     *         bytes.
+     * @throws IOException if the file can not be read.
+     */
+    public static byte[] readThumbnail(String path) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = sBuffer.get();
+            buf.clear();
+            while (buf.hasRemaining() && channel.read(buf) != -1) {
+                // keep reading until the buffer is full or the file ends
+            }
+            buf.flip();
+            return readThumbnail(buf);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the compressed thumbnail from the head of a JPEG stream held in
+     * the given buffer. The position of the buffer is advanced.
+     *
+     * @return the JPEG bytes of the thumbnail, or null if there is none.
+     */
+    public static byte[] readThumbnail(ByteBuffer buf) throws IOException {
+        try {
+            ExifParser parser = ExifParser.parse(new ByteBufferInputStream(buf),
+                    ExifParser.OPTION_THUMBNAIL, sInterface);
+            int event = parser.next();
+            while (event != ExifParser.EVENT_END) {
+                if (event == ExifParser.EVENT_COMPRESSED_IMAGE) {
+                    int size = parser.getCompressedImageSize();
+                    if (size <= 0 || size > buf.remaining()) {
+                        return null;
+                    }
+                    byte[] thumbnail = new byte[size];
+                    if (size == parser.read(thumbnail)) {
+                        return thumbnail;
+                    }
+                    Log.w(TAG, "Failed to read the compressed thumbnail");
+                    return null;
+                }
+                event = parser.next();
+            }
+        } catch (ExifInvalidFormatException e) {
+            Log.w(TAG, "Invalid exif format : " + e);
+        }
+        return null;
+    }
+}
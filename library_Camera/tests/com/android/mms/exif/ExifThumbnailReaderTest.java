@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mms.exif;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link ExifThumbnailReader} against the full parse of {@link ExifInterface} on JPEG
+ * files built here, and times both.
+ * <p>
+ * ExifInterface needs the framework's SparseIntArray, so this runs on a device with
+ * app_process. The optional argument is a writable directory for the test files:
+ *
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_Camera/src \
+ *     library_Camera/tests/com/android/mms/exif/ExifThumbnailReaderTest.java
+ * dx --dex --output=exif-test.jar out
+ * adb push exif-test.jar /data/local/tmp
+ * adb shell CLASSPATH=/data/local/tmp/exif-test.jar app_process /data/local/tmp \
+ *     com.android.mms.exif.ExifThumbnailReaderTest /data/local/tmp
+ * </pre>
+ */
+public class ExifThumbnailReaderTest {
+    private static final int TAG_IMAGE_DESCRIPTION = 0x010E;
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private static final short TYPE_ASCII = 2;
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+
+    // SOS segment, three bytes of scan data and EOI
+    private static final int SCAN_LENGTH = 2 + 2 + 6 + 3 + 2;
+
+    private static final int TIMED_READS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        File file = new File(dir, "ExifThumbnailReaderTest.jpg");
+        try {
+            byte[] thumbnail = createThumbnail(new Random(7), 6000);
+
+            for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                write(file, createJpeg(order, thumbnail, thumbnail.length, 2000));
+                byte[] read = ExifThumbnailReader.readThumbnail(file.getPath());
+                check(Arrays.equals(thumbnail, read), order + ": thumbnail differs");
+                check(Arrays.equals(read, readFull(file)), order + ": differs from the full parse");
+            }
+
+            write(file, createJpeg(ByteOrder.BIG_ENDIAN, null, 0, 2000));
+            check(ExifThumbnailReader.readThumbnail(file.getPath()) == null, "file without IFD1");
+
+            write(file, createPlainJpeg());
+            check(ExifThumbnailReader.readThumbnail(file.getPath()) == null, "file without EXIF");
+
+            // a length reaching past the head that is read
+            write(file, createJpeg(ByteOrder.BIG_ENDIAN, thumbnail, ExifThumbnailReader.MAX_READ_SIZE, 2000));
+            check(ExifThumbnailReader.readThumbnail(file.getPath()) == null, "thumbnail length past the head");
+
+            // cut inside IFD1, which ends right before the thumbnail
+            byte[] jpeg = createJpeg(ByteOrder.BIG_ENDIAN, thumbnail, thumbnail.length, 2000);
+            write(file, Arrays.copyOf(jpeg, jpeg.length - SCAN_LENGTH - thumbnail.length - 10));
+            try {
+                check(ExifThumbnailReader.readThumbnail(file.getPath()) == null, "truncated file");
+            } catch (IOException expected) {
+            }
+
+            testTiming(file, thumbnail);
+        } finally {
+            file.delete();
+        }
+        System.out.println("ExifThumbnailReaderTest passed");
+    }
+
+    /**
+     * A large IFD0 in front of IFD1 is what the thumbnail-only parse skips.
+     */
+    private static void testTiming(File file, byte[] thumbnail) throws IOException {
+        write(file, createJpeg(ByteOrder.BIG_ENDIAN, thumbnail, thumbnail.length, 30000));
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMED_READS; i++) {
+                ExifThumbnailReader.readThumbnail(file.getPath());
+            }
+            long fast = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < TIMED_READS; i++) {
+                readFull(file);
+            }
+            long full = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.println(TIMED_READS + " reads: thumbnail-only " + fast / TIMED_READS / 1000
+                        + "us, full parse " + full / TIMED_READS / 1000 + "us per file");
+            }
+        }
+    }
+
+    private static byte[] readFull(File file) throws IOException {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(file.getPath());
+        return exif.getThumbnailBytes();
+    }
+
+    /**
+     * SOI, APP1 with IFD0 and optionally IFD1 pointing at the thumbnail, then a tiny scan.
+     *
+     * @param thumbnail written after IFD1, null for no IFD1.
+     * @param declaredLength the JPEGInterchangeFormatLength written into IFD1.
+     * @param descriptionLength length of the ImageDescription, makes IFD0 large.
+     */
+    private static byte[] createJpeg(ByteOrder order, byte[] thumbnail, int declaredLength,
+            int descriptionLength) {
+        boolean big = order == ByteOrder.BIG_ENDIAN;
+        Writer tiff = new Writer(big);
+        tiff.bytes(big ? new byte[] {'M', 'M'} : new byte[] {'I', 'I'});
+        tiff.u16(0x2A);
+        tiff.u32(8);
+
+        // IFD0: 3 entries
+        int ifd0Size = 2 + 3 * 12 + 4;
+        int descriptionOffset = 8 + ifd0Size;
+        int makeOffset = descriptionOffset + descriptionLength;
+        int ifd1Offset = makeOffset + 8;
+        tiff.u16(3);
+        tiff.entry(TAG_IMAGE_DESCRIPTION, TYPE_ASCII, descriptionLength, descriptionOffset);
+        tiff.entry(TAG_MAKE, TYPE_ASCII, 8, makeOffset);
+        tiff.u16(TAG_ORIENTATION);
+        tiff.u16(TYPE_SHORT);
+        tiff.u32(1);
+        tiff.u16(6);
+        tiff.u16(0);
+        tiff.u32(thumbnail == null ? 0 : ifd1Offset);
+        byte[] description = new byte[descriptionLength];
+        Arrays.fill(description, (byte) 'd');
+        description[descriptionLength - 1] = 0;
+        tiff.bytes(description);
+        tiff.bytes(new byte[] {'M', 'a', 'k', 'e', 'r', 'X', 'Y', 0});
+
+        if (thumbnail != null) {
+            int ifd1Size = 2 + 2 * 12 + 4;
+            tiff.u16(2);
+            tiff.entry(TAG_JPEG_INTERCHANGE_FORMAT, TYPE_LONG, 1, ifd1Offset + ifd1Size);
+            tiff.entry(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, TYPE_LONG, 1, declaredLength);
+            tiff.u32(0);
+            tiff.bytes(thumbnail);
+        }
+
+        byte[] tiffBytes = tiff.toByteArray();
+        Writer jpeg = new Writer(true);
+        jpeg.u16(0xFFD8);
+        jpeg.u16(0xFFE1);
+        jpeg.u16(2 + 6 + tiffBytes.length);
+        jpeg.bytes(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        jpeg.bytes(tiffBytes);
+        writeScan(jpeg);
+        return jpeg.toByteArray();
+    }
+
+    private static byte[] createPlainJpeg() {
+        Writer jpeg = new Writer(true);
+        jpeg.u16(0xFFD8);
+        writeScan(jpeg);
+        return jpeg.toByteArray();
+    }
+
+    private static void writeScan(Writer jpeg) {
+        jpeg.u16(0xFFDA);
+        jpeg.u16(2 + 6);
+        jpeg.bytes(new byte[] {1, 1, 0, 0, 0x3F, 0});
+        jpeg.bytes(new byte[] {0x12, 0x34, 0x56});
+        jpeg.u16(0xFFD9);
+    }
+
+    private static byte[] createThumbnail(Random random, int length) {
+        byte[] thumbnail = new byte[length];
+        random.nextBytes(thumbnail);
+        thumbnail[0] = (byte) 0xFF;
+        thumbnail[1] = (byte) 0xD8;
+        thumbnail[length - 2] = (byte) 0xFF;
+        thumbnail[length - 1] = (byte) 0xD9;
+        return thumbnail;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        private final boolean mBigEndian;
+
+        Writer(boolean bigEndian) {
+            mBigEndian = bigEndian;
+        }
+
+        void u16(int value) {
+            if (mBigEndian) {
+                write(value >>> 8);
+                write(value);
+            } else {
+                write(value);
+                write(value >>> 8);
+            }
+        }
+
+        void u32(int value) {
+            if (mBigEndian) {
+                u16(value >>> 16);
+                u16(value);
+            } else {
+                u16(value);
+                u16(value >>> 16);
+            }
+        }
+
+        void entry(int tag, short type, int count, int valueOrOffset) {
+            u16(tag);
+            u16(type);
+            u32(count);
+            u32(valueOrOffset);
+        }
+
+        void bytes(byte[] data) {
+            write(data, 0, data.length);
+        }
+    }
+}
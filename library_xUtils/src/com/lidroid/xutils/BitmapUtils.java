@@ -30,13 +30,17 @@ import com.lidroid.xutils.bitmap.callback.BitmapLoadCallBack;
 import com.lidroid.xutils.bitmap.callback.BitmapLoadFrom;
 import com.lidroid.xutils.bitmap.callback.DefaultBitmapLoadCallBack;
 import com.lidroid.xutils.bitmap.core.AsyncDrawable;
+import com.lidroid.xutils.bitmap.core.BitmapLoadRegistry;
+import com.lidroid.xutils.bitmap.core.BitmapReusePool;
 import com.lidroid.xutils.bitmap.core.BitmapSize;
 import com.lidroid.xutils.bitmap.download.Downloader;
+import com.lidroid.xutils.bitmap.download.ThumbnailSource;
 import com.lidroid.xutils.util.core.CompatibleAsyncTask;
 import com.lidroid.xutils.util.core.LruDiskCache;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 public class BitmapUtils {
 
@@ -156,6 +160,11 @@ public class BitmapUtils {
         return this;
     }
 
+    public BitmapUtils configThumbnailSources(List<ThumbnailSource> thumbnailSources) {
+        globalConfig.setThumbnailSources(thumbnailSources);
+        return this;
+    }
+
     public BitmapUtils configDefaultCacheExpiry(long defaultExpiry) {
         globalConfig.setDefaultCacheExpiry(defaultExpiry);
         return this;
@@ -181,11 +190,31 @@ public class BitmapUtils {
         return this;
     }
 
+    public BitmapUtils configMemoryCacheTinyLfuEnabled(boolean enabled) {
+        globalConfig.setMemoryCacheTinyLfuEnabled(enabled);
+        return this;
+    }
+
+    public BitmapUtils configMemoryCacheSegmentCount(int segmentCount) {
+        globalConfig.setMemoryCacheSegmentCount(segmentCount);
+        return this;
+    }
+
     public BitmapUtils configDiskCacheEnabled(boolean enabled) {
         globalConfig.setDiskCacheEnabled(enabled);
         return this;
     }
 
+    public BitmapUtils configThumbnailCacheEnabled(boolean enabled) {
+        globalConfig.setThumbnailCacheEnabled(enabled);
+        return this;
+    }
+
+    public BitmapUtils configThumbnailCacheSize(int thumbnailCacheSize) {
+        globalConfig.setThumbnailCacheSize(thumbnailCacheSize);
+        return this;
+    }
+
     public BitmapUtils configDiskCacheFileNameGenerator(LruDiskCache.DiskCacheFileNameGenerator diskCacheFileNameGenerator) {
         globalConfig.setDiskCacheFileNameGenerator(diskCacheFileNameGenerator);
         return this;
@@ -223,27 +252,34 @@ public class BitmapUtils {
         container.clearAnimation();
 
         if (callBack == null) {
-            callBack = new DefaultBitmapLoadCallBack<T>();
+            callBack = getDefaultLoadCallBack();
         }
 
         if (displayConfig == null || displayConfig == defaultDisplayConfig) {
             displayConfig = defaultDisplayConfig.cloneNew();
         }
 
-        // Optimize Max Size
+        // Optimize Max Size, a size given by the config is kept as it is
         BitmapSize size = displayConfig.getBitmapMaxSize();
-        displayConfig.setBitmapMaxSize(BitmapCommonUtils.optimizeMaxSizeByView(container, size.getWidth(), size.getHeight()));
+        if (size.getWidth() <= 0 || size.getHeight() <= 0) {
+            displayConfig.setBitmapMaxSize(BitmapCommonUtils.optimizeMaxSizeByView(container, size.getWidth(), size.getHeight()));
+        }
 
         callBack.onPreLoad(container, uri, displayConfig);
 
+        BitmapReusePool reusePool = globalConfig.getBitmapCache().getBitmapReusePool();
+
         if (TextUtils.isEmpty(uri)) {
+            reusePool.detach(container);
             callBack.onLoadFailed(container, uri, displayConfig.getLoadFailedDrawable());
             return;
         }
 
-        Bitmap bitmap = globalConfig.getBitmapCache().getBitmapFromMemCache(uri, displayConfig);
+        Bitmap bitmap = globalConfig.getBitmapCache().getBitmapFromMemCacheAndHold(uri, displayConfig);
 
         if (bitmap != null) {
+            reusePool.attach(container, bitmap);
+            reusePool.release(bitmap);
             callBack.onLoadStarted(container, uri, displayConfig);
             callBack.onLoadCompleted(
                     container,
@@ -253,6 +289,8 @@ public class BitmapUtils {
                     BitmapLoadFrom.MEMORY_CACHE);
         } else if (!bitmapLoadTaskExist(container, uri, callBack)) {
 
+            // the bitmap shown before may be reused once the loading image replaces it
+            reusePool.detach(container);
             final BitmapLoadTask<T> loadTask = new BitmapLoadTask<T>(container, uri, displayConfig, callBack);
             // set loading image
             final AsyncDrawable<T> asyncDrawable = new AsyncDrawable<T>(
@@ -291,6 +329,30 @@ public class BitmapUtils {
         globalConfig.clearDiskCache(uri);
     }
 
+    /**
+     * Shrink the memory cache under memory pressure.
+     *
+     * @param ratio share of the configured memory cache size to keep, 1 restores it and 0 empties the cache.
+     */
+    public void trimMemoryCache(float ratio) {
+        globalConfig.getBitmapCache().trimMemoryCache(ratio);
+    }
+
+    /**
+     * @return the current memory cache budget in bytes, smaller than the configured size while trimmed.
+     */
+    public int getMemoryCacheBudget() {
+        return globalConfig.getBitmapCache().getMemoryCacheMaxSize();
+    }
+
+    public int getMemoryCacheUsage() {
+        return globalConfig.getBitmapCache().getMemoryCacheUsage();
+    }
+
+    public int getMemoryCacheEvictionCount() {
+        return globalConfig.getBitmapCache().getMemoryCacheEvictionCount();
+    }
+
     public void flushCache() {
         globalConfig.flushCache();
     }
@@ -333,6 +395,14 @@ public class BitmapUtils {
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    // has no bitmap setter, so one instance serves every container
+    private static final DefaultBitmapLoadCallBack<View> DEFAULT_LOAD_CALLBACK = new DefaultBitmapLoadCallBack<View>();
+
+    @SuppressWarnings("unchecked")
+    private static <T extends View> BitmapLoadCallBack<T> getDefaultLoadCallBack() {
+        return (BitmapLoadCallBack<T>) (BitmapLoadCallBack<?>) DEFAULT_LOAD_CALLBACK;
+    }
+
     @SuppressWarnings("unchecked")
     private static <T extends View> BitmapLoadTask<T> getBitmapTaskFromContainer(T container, BitmapLoadCallBack<T> callBack) {
         if (container != null) {
@@ -390,11 +460,33 @@ public class BitmapUtils {
                 }
             }
 
+            if (this.isCancelled() || this.getTargetContainer() == null) return null;
+            this.publishProgress(PROGRESS_LOAD_STARTED);
+
+            // join the load of the same image if another container already asked for it,
+            // the bitmap comes back held for this task
+            BitmapReusePool reusePool = globalConfig.getBitmapCache().getBitmapReusePool();
+            Bitmap bitmap = BitmapLoadRegistry.load(uri, displayConfig, this, reusePool, new BitmapLoadRegistry.BitmapLoader() {
+                @Override
+                public Bitmap load() {
+                    return loadBitmap();
+                }
+            });
+            reusePool.attach(this.getTargetContainer(), bitmap);
+            reusePool.release(bitmap);
+            return bitmap;
+        }
+
+        private Bitmap loadBitmap() {
             Bitmap bitmap = null;
 
-            // get cache from disk cache
+            // get thumbnail of local image
             if (!this.isCancelled() && this.getTargetContainer() != null) {
-                this.publishProgress(PROGRESS_LOAD_STARTED);
+                bitmap = globalConfig.getBitmapCache().getBitmapFromThumbnailSource(uri, displayConfig, this);
+            }
+
+            // get cache from disk cache
+            if (bitmap == null && !this.isCancelled() && this.getTargetContainer() != null) {
                 bitmap = globalConfig.getBitmapCache().getBitmapFromDiskCache(uri, displayConfig);
             }
 
@@ -446,6 +538,7 @@ public class BitmapUtils {
                             displayConfig,
                             from);
                 } else {
+                    globalConfig.getBitmapCache().getBitmapReusePool().detach(container);
                     callBack.onLoadFailed(
                             container,
                             this.uri,
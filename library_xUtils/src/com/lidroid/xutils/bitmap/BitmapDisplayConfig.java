@@ -34,6 +34,8 @@ public class BitmapDisplayConfig {
 
     private static final Drawable TRANSPARENT_DRAWABLE = new ColorDrawable(Color.TRANSPARENT);
 
+    private static final long FINGERPRINT_ORIGINAL = -1L;
+
     public BitmapDisplayConfig() {
     }
 
@@ -98,6 +100,17 @@ public class BitmapDisplayConfig {
         return isShowOriginal() ? "" : bitmapMaxSize.toString();
     }
 
+    /**
+     * Identifies the size variant of the cached bitmap like {@link #toString()}, without building a string.
+     * The max size is packed into the value, so two configs have the same fingerprint only if they
+     * would be cached under the same key.
+     */
+    public long getFingerprint() {
+        if (isShowOriginal()) return FINGERPRINT_ORIGINAL;
+        BitmapSize size = getBitmapMaxSize();
+        return ((long) size.getWidth() << 32) | (size.getHeight() & 0xFFFFFFFFL);
+    }
+
     public BitmapDisplayConfig cloneNew() {
         BitmapDisplayConfig config = new BitmapDisplayConfig();
         config.bitmapMaxSize = this.bitmapMaxSize;
@@ -20,11 +20,16 @@ import android.content.Context;
 import android.text.TextUtils;
 import com.lidroid.xutils.bitmap.core.BitmapCache;
 import com.lidroid.xutils.bitmap.download.Downloader;
+import com.lidroid.xutils.bitmap.download.ExifThumbnailSource;
+import com.lidroid.xutils.bitmap.download.MediaStoreThumbnailSource;
 import com.lidroid.xutils.bitmap.download.SimpleDownloader;
+import com.lidroid.xutils.bitmap.download.ThumbnailSource;
 import com.lidroid.xutils.util.LogUtils;
 import com.lidroid.xutils.util.core.CompatibleAsyncTask;
 import com.lidroid.xutils.util.core.LruDiskCache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -42,11 +47,16 @@ public class BitmapGlobalConfig {
     private int memoryCacheSize = 1024 * 1024 * 4; // 4MB
     public final static int MIN_DISK_CACHE_SIZE = 1024 * 1024 * 10; // 10M
     private int diskCacheSize = 1024 * 1024 * 50;  // 50M
+    private int thumbnailCacheSize = 1024 * 1024 * 10;  // 10M
+    private int memoryCacheSegmentCount = 0; // a single lock
 
     private boolean memoryCacheEnabled = true;
     private boolean diskCacheEnabled = true;
+    private boolean thumbnailCacheEnabled = true;
+    private boolean memoryCacheTinyLfuEnabled = false;
 
     private Downloader downloader;
+    private List<ThumbnailSource> thumbnailSources;
     private BitmapCache bitmapCache;
 
     private int threadPoolSize = 5;
@@ -97,6 +107,14 @@ public class BitmapGlobalConfig {
         return diskCachePath;
     }
 
+    /**
+     * Sampled thumbnails are kept apart from the downloaded files,
+     * in the directory next to the disk cache.
+     */
+    public String getThumbnailCachePath() {
+        return getDiskCachePath() + "_thumb";
+    }
+
     public Downloader getDownloader() {
         if (downloader == null) {
             downloader = new SimpleDownloader();
@@ -112,6 +130,29 @@ public class BitmapGlobalConfig {
         this.downloader = downloader;
     }
 
+    /**
+     * Thumbnail sources tried in order for local images before the full decode.
+     * Defaults to the EXIF embedded thumbnail and then the MediaStore thumbnail.
+     */
+    public List<ThumbnailSource> getThumbnailSources() {
+        if (thumbnailSources == null) {
+            thumbnailSources = new ArrayList<ThumbnailSource>();
+            thumbnailSources.add(new ExifThumbnailSource());
+            thumbnailSources.add(new MediaStoreThumbnailSource());
+        }
+        for (ThumbnailSource source : thumbnailSources) {
+            source.setContext(mContext);
+        }
+        return thumbnailSources;
+    }
+
+    /**
+     * @param thumbnailSources empty list to always decode from the original image.
+     */
+    public void setThumbnailSources(List<ThumbnailSource> thumbnailSources) {
+        this.thumbnailSources = thumbnailSources;
+    }
+
     public long getDefaultCacheExpiry() {
         return defaultCacheExpiry;
     }
@@ -171,6 +212,21 @@ public class BitmapGlobalConfig {
         }
     }
 
+    public int getMemoryCacheSegmentCount() {
+        return memoryCacheSegmentCount;
+    }
+
+    /**
+     * Split the memory cache into segments with their own locks, takes effect when the memory cache is initialized.
+     *
+     * @param memoryCacheSegmentCount 0 or 1 for a single LRU map.
+     */
+    public void setMemoryCacheSegmentCount(int memoryCacheSegmentCount) {
+        if (memoryCacheSegmentCount >= 0) {
+            this.memoryCacheSegmentCount = memoryCacheSegmentCount;
+        }
+    }
+
     public int getDiskCacheSize() {
         return diskCacheSize;
     }
@@ -184,6 +240,19 @@ public class BitmapGlobalConfig {
         }
     }
 
+    public int getThumbnailCacheSize() {
+        return thumbnailCacheSize;
+    }
+
+    public void setThumbnailCacheSize(int thumbnailCacheSize) {
+        if (thumbnailCacheSize > 0) {
+            this.thumbnailCacheSize = thumbnailCacheSize;
+            if (bitmapCache != null) {
+                bitmapCache.setThumbnailCacheSize(this.thumbnailCacheSize);
+            }
+        }
+    }
+
     public int getThreadPoolSize() {
         return threadPoolSize;
     }
@@ -211,6 +280,19 @@ public class BitmapGlobalConfig {
         this.memoryCacheEnabled = memoryCacheEnabled;
     }
 
+    public boolean isMemoryCacheTinyLfuEnabled() {
+        return memoryCacheTinyLfuEnabled;
+    }
+
+    /**
+     * Evict from the memory cache by W-TinyLFU instead of LRU, so that a scan through many images
+     * does not flush the frequently shown ones. Off by default. Not used by a segmented memory cache,
+     * takes effect when the memory cache is initialized.
+     */
+    public void setMemoryCacheTinyLfuEnabled(boolean memoryCacheTinyLfuEnabled) {
+        this.memoryCacheTinyLfuEnabled = memoryCacheTinyLfuEnabled;
+    }
+
     public boolean isDiskCacheEnabled() {
         return diskCacheEnabled;
     }
@@ -219,6 +301,17 @@ public class BitmapGlobalConfig {
         this.diskCacheEnabled = diskCacheEnabled;
     }
 
+    public boolean isThumbnailCacheEnabled() {
+        return thumbnailCacheEnabled;
+    }
+
+    /**
+     * @param thumbnailCacheEnabled whether to keep the sampled and rotated result of images on disk.
+     */
+    public void setThumbnailCacheEnabled(boolean thumbnailCacheEnabled) {
+        this.thumbnailCacheEnabled = thumbnailCacheEnabled;
+    }
+
     public LruDiskCache.DiskCacheFileNameGenerator getDiskCacheFileNameGenerator() {
         return diskCacheFileNameGenerator;
     }
@@ -383,4 +476,4 @@ public class BitmapGlobalConfig {
     public void closeCache() {
         new BitmapCacheManagementTask().execute(BitmapCacheManagementTask.MESSAGE_CLOSE);
     }
-}
\ No newline at end of file
+}
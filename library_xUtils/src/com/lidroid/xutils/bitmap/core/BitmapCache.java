@@ -31,22 +31,53 @@ import com.lidroid.xutils.BitmapUtils;
 import com.lidroid.xutils.bitmap.BitmapCommonUtils;
 import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
 import com.lidroid.xutils.bitmap.BitmapGlobalConfig;
+import com.lidroid.xutils.bitmap.download.ThumbnailSource;
 import com.lidroid.xutils.util.IOUtils;
 import com.lidroid.xutils.util.LogUtils;
+import com.lidroid.xutils.util.core.EvictionPolicy;
+import com.lidroid.xutils.util.core.KeyLocks;
 import com.lidroid.xutils.util.core.LruDiskCache;
 import com.lidroid.xutils.util.core.LruMemoryCache;
+import com.lidroid.xutils.util.core.MemoryCache;
+import com.lidroid.xutils.util.core.SegmentedLruMemoryCache;
+import com.lidroid.xutils.util.core.TinyLfuEvictionPolicy;
 
 
 public class BitmapCache {
 
     private final int DISK_CACHE_INDEX = 0;
 
-    private LruDiskCache mDiskLruCache;
-    private LruMemoryCache<MemoryCacheKey, Bitmap> mMemoryCache;
+    private static final int THUMBNAIL_QUALITY = 85;
 
+    private static final int KEY_LOCK_STRIPES = 32;
+
+    // sizes the frequency sketch of the TinyLFU memory cache policy
+    private static final int EXPECTED_BITMAP_SIZE = 16 * 1024;
+
+    private static final long NO_CONFIG_FINGERPRINT = Long.MIN_VALUE;
+
+    private static final ThreadLocal<MemoryCacheKey> sLookupKey = new ThreadLocal<MemoryCacheKey>() {
+        @Override
+        protected MemoryCacheKey initialValue() {
+            return new MemoryCacheKey(null, 0);
+        }
+    };
+
+    private volatile LruDiskCache mDiskLruCache;
+    private volatile LruDiskCache mThumbDiskCache;
+    private MemoryCache<MemoryCacheKey, Bitmap> mMemoryCache;
+
+    // bitmaps evicted from the memory cache, decoded into again
+    private static final int REUSE_POOL_PERCENT = 25;
+    private final BitmapReusePool mReusePool;
+
+    // guards the disk cache lifecycle only, the LruDiskCache serializes its own journal
     private final Object mDiskCacheLock = new Object();
     private boolean isDiskCacheReadied = false;
 
+    // requests of the same key share a lock, so different uris download and decode in parallel
+    private final KeyLocks mKeyLocks = new KeyLocks(KEY_LOCK_STRIPES);
+
     private BitmapGlobalConfig globalConfig;
 
     /**
@@ -57,6 +88,7 @@ public class BitmapCache {
     public BitmapCache(BitmapGlobalConfig globalConfig) {
         if (globalConfig == null) throw new IllegalArgumentException("globalConfig may not be null");
         this.globalConfig = globalConfig;
+        this.mReusePool = new BitmapReusePool(globalConfig.getMemoryCacheSize() / 100 * REUSE_POOL_PERCENT);
     }
 
 
@@ -73,17 +105,53 @@ public class BitmapCache {
             } catch (Throwable e) {
             }
         }
-        mMemoryCache = new LruMemoryCache<MemoryCacheKey, Bitmap>(globalConfig.getMemoryCacheSize()) {
-            /**
-             * Measure item size in bytes rather than units which is more practical
-             * for a bitmap cache
-             */
-            @Override
-            protected int sizeOf(MemoryCacheKey key, Bitmap bitmap) {
-                if (bitmap == null) return 0;
-                return bitmap.getRowBytes() * bitmap.getHeight();
+        if (globalConfig.getMemoryCacheSegmentCount() > 1) {
+            mMemoryCache = new SegmentedLruMemoryCache<MemoryCacheKey, Bitmap>(globalConfig.getMemoryCacheSize(),
+                    globalConfig.getMemoryCacheSegmentCount()) {
+                @Override
+                protected int sizeOf(MemoryCacheKey key, Bitmap bitmap) {
+                    return getMemoryCacheEntrySize(bitmap);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, MemoryCacheKey key, Bitmap oldValue, Bitmap newValue) {
+                    onMemoryCacheEntryRemoved(oldValue, newValue);
+                }
+            };
+        } else {
+            int memoryCacheSize = globalConfig.getMemoryCacheSize();
+            EvictionPolicy<MemoryCacheKey> evictionPolicy = null;
+            if (globalConfig.isMemoryCacheTinyLfuEnabled()) {
+                evictionPolicy = new TinyLfuEvictionPolicy<MemoryCacheKey>(memoryCacheSize,
+                        memoryCacheSize / EXPECTED_BITMAP_SIZE);
             }
-        };
+            mMemoryCache = new LruMemoryCache<MemoryCacheKey, Bitmap>(memoryCacheSize, evictionPolicy) {
+                @Override
+                protected int sizeOf(MemoryCacheKey key, Bitmap bitmap) {
+                    return getMemoryCacheEntrySize(bitmap);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, MemoryCacheKey key, Bitmap oldValue, Bitmap newValue) {
+                    onMemoryCacheEntryRemoved(oldValue, newValue);
+                }
+            };
+        }
+    }
+
+    /**
+     * Measure item size in bytes rather than units which is more practical
+     * for a bitmap cache
+     */
+    private static int getMemoryCacheEntrySize(Bitmap bitmap) {
+        if (bitmap == null) return 0;
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private void onMemoryCacheEntryRemoved(Bitmap oldValue, Bitmap newValue) {
+        if (oldValue != newValue) {
+            mReusePool.put(oldValue);
+        }
     }
 
     /**
@@ -113,15 +181,74 @@ public class BitmapCache {
                     LogUtils.e(e.getMessage(), e);
                 }
             }
+            if (globalConfig.isThumbnailCacheEnabled() && (mThumbDiskCache == null || mThumbDiskCache.isClosed())) {
+                File thumbCacheDir = new File(globalConfig.getThumbnailCachePath());
+                if (!thumbCacheDir.exists()) {
+                    thumbCacheDir.mkdirs();
+                }
+                long availableSpace = BitmapCommonUtils.getAvailableSpace(thumbCacheDir);
+                long thumbCacheSize = globalConfig.getThumbnailCacheSize();
+                thumbCacheSize = availableSpace > thumbCacheSize ? thumbCacheSize : availableSpace;
+                try {
+                    mThumbDiskCache = LruDiskCache.open(thumbCacheDir, 1, 1, thumbCacheSize);
+                } catch (Throwable e) {
+                    mThumbDiskCache = null;
+                    LogUtils.e(e.getMessage(), e);
+                }
+            }
             isDiskCacheReadied = true;
             mDiskCacheLock.notifyAll();
         }
     }
 
+    /**
+     * Wait for the disk cache to initialize.
+     */
+    private void waitForDiskCacheReadied() {
+        synchronized (mDiskCacheLock) {
+            while (!isDiskCacheReadied) {
+                try {
+                    mDiskCacheLock.wait();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+
+    private Object getKeyLock(String key) {
+        return mKeyLocks.get(key);
+    }
+
     public void setMemoryCacheSize(int maxSize) {
         if (mMemoryCache != null) {
             mMemoryCache.setMaxSize(maxSize);
         }
+        mReusePool.setMaxSize(maxSize / 100 * REUSE_POOL_PERCENT);
+    }
+
+    /**
+     * Shrink the memory cache and the reuse pool to {@code ratio} of the configured size,
+     * 1 restores the configured size and 0 empties both.
+     */
+    public void trimMemoryCache(float ratio) {
+        ratio = Math.max(0f, Math.min(1f, ratio));
+        setMemoryCacheSize(Math.round(globalConfig.getMemoryCacheSize() * ratio));
+    }
+
+    public int getMemoryCacheMaxSize() {
+        return mMemoryCache == null ? 0 : mMemoryCache.maxSize();
+    }
+
+    public int getMemoryCacheUsage() {
+        return mMemoryCache == null ? 0 : mMemoryCache.size();
+    }
+
+    public int getMemoryCacheEvictionCount() {
+        return mMemoryCache == null ? 0 : mMemoryCache.evictionCount();
+    }
+
+    public BitmapReusePool getBitmapReusePool() {
+        return mReusePool;
     }
 
     public void setDiskCacheSize(int maxSize) {
@@ -130,6 +257,12 @@ public class BitmapCache {
         }
     }
 
+    public void setThumbnailCacheSize(int maxSize) {
+        if (mThumbDiskCache != null) {
+            mThumbDiskCache.setMaxSize(maxSize);
+        }
+    }
+
     public void setDiskCacheFileNameGenerator(LruDiskCache.DiskCacheFileNameGenerator diskCacheFileNameGenerator) {
         if (mDiskLruCache != null && diskCacheFileNameGenerator != null) {
             mDiskLruCache.setDiskCacheFileNameGenerator(diskCacheFileNameGenerator);
@@ -138,6 +271,11 @@ public class BitmapCache {
 
     public Bitmap downloadBitmap(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task) {
 
+        // local images are decoded from the original file, never copied into the disk cache
+        if (uri != null && uri.startsWith("/")) {
+            return decodeLocalBitmap(uri, config, task);
+        }
+
         BitmapMeta bitmapMeta = new BitmapMeta();
 
         OutputStream outputStream = null;
@@ -148,20 +286,15 @@ public class BitmapCache {
             Bitmap bitmap = null;
             // try download to disk
             if (globalConfig.isDiskCacheEnabled()) {
-                synchronized (mDiskCacheLock) {
-                    // Wait for disk cache to initialize
-                    while (!isDiskCacheReadied) {
-                        try {
-                            mDiskCacheLock.wait();
-                        } catch (Throwable e) {
-                        }
-                    }
-
-                    if (mDiskLruCache != null) {
-                        try {
-                            snapshot = mDiskLruCache.get(uri);
+                waitForDiskCacheReadied();
+                LruDiskCache diskCache = mDiskLruCache;
+                if (diskCache != null) {
+                    try {
+                        // a second request of the same uri waits here and then finds the committed entry
+                        synchronized (getKeyLock(uri)) {
+                            snapshot = diskCache.get(uri);
                             if (snapshot == null) {
-                                LruDiskCache.Editor editor = mDiskLruCache.edit(uri);
+                                LruDiskCache.Editor editor = diskCache.edit(uri);
                                 if (editor != null) {
                                     outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
                                     bitmapMeta.expiryTimestamp = globalConfig.getDownloader().downloadToStream(uri, outputStream, task);
@@ -172,20 +305,20 @@ public class BitmapCache {
                                         editor.setEntryExpiryTimestamp(bitmapMeta.expiryTimestamp);
                                         editor.commit();
                                     }
-                                    snapshot = mDiskLruCache.get(uri);
+                                    snapshot = diskCache.get(uri);
                                 }
                             }
-                            if (snapshot != null) {
-                                bitmapMeta.inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
-                                bitmap = decodeBitmapMeta(bitmapMeta, config);
-                                if (bitmap == null) {
-                                    bitmapMeta.inputStream = null;
-                                    mDiskLruCache.remove(uri);
-                                }
+                        }
+                        if (snapshot != null) {
+                            bitmapMeta.inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
+                            bitmap = decodeBitmapMeta(bitmapMeta, config);
+                            if (bitmap == null) {
+                                bitmapMeta.inputStream = null;
+                                diskCache.remove(uri);
                             }
-                        } catch (Throwable e) {
-                            LogUtils.e(e.getMessage(), e);
                         }
+                    } catch (Throwable e) {
+                        LogUtils.e(e.getMessage(), e);
                     }
                 }
             }
@@ -204,6 +337,9 @@ public class BitmapCache {
 
             if (bitmap != null) {
                 bitmap = rotateBitmapIfNeeded(uri, config, bitmap);
+                if (task == null || !task.isCancelled()) {
+                    addBitmapToThumbnailCache(uri, config, bitmap, bitmapMeta.expiryTimestamp);
+                }
                 addBitmapToMemoryCache(uri, config, bitmap, bitmapMeta.expiryTimestamp);
             }
             return bitmap;
@@ -217,9 +353,185 @@ public class BitmapCache {
         return null;
     }
 
+    /**
+     * Decode a local image straight from its file and keep the sampled result in the thumbnail cache.
+     *
+     * @param path
+     * @param config
+     * @param task
+     * @return
+     */
+    private Bitmap decodeLocalBitmap(String path, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task) {
+        File file = new File(path);
+        if (!file.exists()) return null;
+
+        FileInputStream inputStream = null;
+        try {
+            Bitmap bitmap = null;
+            inputStream = new FileInputStream(file);
+            if (config == null || config.isShowOriginal()) {
+                bitmap = BitmapDecoder.decodeFileDescriptor(inputStream.getFD());
+            } else {
+                bitmap = BitmapDecoder.decodeSampledBitmapFromStream(
+                        inputStream,
+                        config.getBitmapMaxSize(),
+                        config.getBitmapConfig(),
+                        mReusePool);
+            }
+            if (bitmap == null) return null;
+
+            bitmap = rotateBitmapIfNeeded(path, config, bitmap);
+            long expiryTimestamp = System.currentTimeMillis() + globalConfig.getDefaultCacheExpiry();
+            if (task == null || !task.isCancelled()) {
+                addBitmapToThumbnailCache(path, config, bitmap, expiryTimestamp);
+            }
+            addBitmapToMemoryCache(path, config, bitmap, expiryTimestamp);
+            return bitmap;
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return null;
+    }
+
+    /**
+     * Thumbnails are keyed by the display size, so each size of the same image gets its own entry.
+     * The thumbnail of a local image also changes with the file, so its key carries the file length
+     * and modification time.
+     *
+     * @param uri
+     * @param config
+     * @return null if the image has no thumbnail key.
+     */
+    private String getThumbnailCacheKey(String uri, BitmapDisplayConfig config) {
+        String key = uri;
+        if (uri.startsWith("/")) {
+            File file = new File(uri);
+            if (!file.exists()) return null;
+            key = key + "_" + file.length() + "_" + file.lastModified();
+        }
+        return key + config.toString() + (config.isAutoRotation() ? "_r" : "");
+    }
+
+    private void addBitmapToThumbnailCache(String uri, BitmapDisplayConfig config, Bitmap bitmap, long expiryTimestamp) {
+        if (uri == null || bitmap == null || config == null || config.isShowOriginal()
+                || !globalConfig.isThumbnailCacheEnabled()) return;
+        String key = getThumbnailCacheKey(uri, config);
+        if (key == null) return;
+        LruDiskCache thumbDiskCache = mThumbDiskCache;
+        if (thumbDiskCache == null || thumbDiskCache.isClosed()) return;
+        synchronized (getKeyLock(key)) {
+            OutputStream outputStream = null;
+            LruDiskCache.Editor editor = null;
+            try {
+                editor = thumbDiskCache.edit(key);
+                if (editor == null) return;
+                outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
+                Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+                if (bitmap.compress(format, THUMBNAIL_QUALITY, outputStream)) {
+                    outputStream.close();
+                    outputStream = null;
+                    editor.setEntryExpiryTimestamp(expiryTimestamp);
+                    editor.commit();
+                } else {
+                    editor.abort();
+                }
+            } catch (Throwable e) {
+                LogUtils.e(e.getMessage(), e);
+                if (editor != null) {
+                    editor.abortUnlessCommitted();
+                }
+            } finally {
+                IOUtils.closeQuietly(outputStream);
+            }
+        }
+    }
+
+    /**
+     * Get the sampled and rotated thumbnail of the image from the thumbnail cache.
+     *
+     * @param uri
+     * @param config
+     * @return null if the thumbnail of this size was not cached.
+     */
+    private Bitmap getBitmapFromThumbnailCache(String uri, BitmapDisplayConfig config) {
+        if (uri == null || config == null || config.isShowOriginal() || !globalConfig.isThumbnailCacheEnabled()) return null;
+        String key = getThumbnailCacheKey(uri, config);
+        if (key == null) return null;
+        waitForDiskCacheReadied();
+        LruDiskCache thumbDiskCache = mThumbDiskCache;
+        if (thumbDiskCache == null) return null;
+        LruDiskCache.Snapshot snapshot = null;
+        try {
+            if (!uri.startsWith("/") && !isInDiskCache(uri)) {
+                // the original was cleared or evicted, the thumbnail of it is stale
+                thumbDiskCache.remove(key);
+                return null;
+            }
+            snapshot = thumbDiskCache.get(key);
+            if (snapshot != null) {
+                // already sampled and rotated
+                Bitmap bitmap = BitmapDecoder.decodeSampledBitmapFromStream(
+                        snapshot.getInputStream(DISK_CACHE_INDEX),
+                        config.getBitmapMaxSize(),
+                        config.getBitmapConfig(),
+                        mReusePool);
+                if (bitmap == null) {
+                    thumbDiskCache.remove(key);
+                    return null;
+                }
+                addBitmapToMemoryCache(uri, config, bitmap, thumbDiskCache.getExpiryTimestamp(key));
+                return bitmap;
+            }
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(snapshot);
+        }
+        return null;
+    }
+
+    /**
+     * Whether the downloaded original of the uri is still in the disk cache, without reading it
+     * or refreshing its place in the LRU queue.
+     */
+    private boolean isInDiskCache(String uri) throws IOException {
+        LruDiskCache diskCache = mDiskLruCache;
+        return diskCache != null && !diskCache.isClosed() && diskCache.contains(uri);
+    }
+
+    /**
+     * Get a thumbnail of the local image from the configured thumbnail sources.
+     *
+     * @param uri
+     * @param config
+     * @param task
+     * @return null if no source has a thumbnail large enough.
+     */
+    public Bitmap getBitmapFromThumbnailSource(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task) {
+        if (uri == null || !uri.startsWith("/") || config == null || config.isShowOriginal()) return null;
+        try {
+            for (ThumbnailSource source : globalConfig.getThumbnailSources()) {
+                if (task != null && (task.isCancelled() || task.getTargetContainer() == null)) return null;
+                Bitmap bitmap = source.getThumbnail(uri, config, task);
+                if (bitmap != null) {
+                    bitmap = rotateBitmapIfNeeded(uri, config, bitmap);
+                    addBitmapToMemoryCache(uri, config, bitmap, System.currentTimeMillis() + globalConfig.getDefaultCacheExpiry());
+                    return bitmap;
+                }
+            }
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        }
+        return null;
+    }
+
     private void addBitmapToMemoryCache(String uri, BitmapDisplayConfig config, Bitmap bitmap, long expiryTimestamp) throws IOException {
         if (uri != null && bitmap != null && globalConfig.isMemoryCacheEnabled() && mMemoryCache != null) {
-            MemoryCacheKey key = new MemoryCacheKey(uri, config == null ? null : config.toString());
+            MemoryCacheKey key = new MemoryCacheKey(uri, getFingerprint(config));
+            // released by the load task once the bitmap reached its container
+            mReusePool.hold(bitmap);
             mMemoryCache.put(key, bitmap, expiryTimestamp);
         }
     }
@@ -232,13 +544,41 @@ public class BitmapCache {
      * @return The bitmap if found in cache, null otherwise
      */
     public Bitmap getBitmapFromMemCache(String uri, BitmapDisplayConfig config) {
-        if (mMemoryCache != null && globalConfig.isMemoryCacheEnabled()) {
-            MemoryCacheKey key = new MemoryCacheKey(uri, config == null ? null : config.toString());
-            return mMemoryCache.get(key);
+        MemoryCache<MemoryCacheKey, Bitmap> memoryCache = mMemoryCache;
+        if (memoryCache != null && globalConfig.isMemoryCacheEnabled()) {
+            // a lookup allocates nothing, the key is only stored by addBitmapToMemoryCache
+            MemoryCacheKey key = sLookupKey.get();
+            key.set(uri, getFingerprint(config));
+            Bitmap bitmap = memoryCache.get(key);
+            key.set(null, 0);
+            return bitmap;
         }
         return null;
     }
 
+    /**
+     * Get the bitmap from memory cache and hold it in the reuse pool in one step, so an eviction
+     * by another thread can't hand it to a decode as inBitmap before it reaches its container.
+     * The caller must {@link BitmapReusePool#release} it once it is attached.
+     *
+     * @param uri
+     * @param config
+     * @return The held bitmap if found in cache, null otherwise
+     */
+    public Bitmap getBitmapFromMemCacheAndHold(String uri, BitmapDisplayConfig config) {
+        // an evicted bitmap is only offered to the pool after it left the cache, and the pool
+        // hands bitmaps out under its own monitor
+        synchronized (mReusePool) {
+            Bitmap bitmap = getBitmapFromMemCache(uri, config);
+            mReusePool.hold(bitmap);
+            return bitmap;
+        }
+    }
+
+    private static long getFingerprint(BitmapDisplayConfig config) {
+        return config == null ? NO_CONFIG_FINGERPRINT : config.getFingerprint();
+    }
+
     /**
      * Get the bitmap file from disk cache.
      *
@@ -261,41 +601,43 @@ public class BitmapCache {
      */
     public Bitmap getBitmapFromDiskCache(String uri, BitmapDisplayConfig config) {
         if (uri == null || !globalConfig.isDiskCacheEnabled()) return null;
-        synchronized (mDiskCacheLock) {
-            while (!isDiskCacheReadied) {
-                try {
-                    mDiskCacheLock.wait();
-                } catch (Throwable e) {
-                }
-            }
-            if (mDiskLruCache != null) {
-                LruDiskCache.Snapshot snapshot = null;
-                try {
-                    snapshot = mDiskLruCache.get(uri);
-                    if (snapshot != null) {
-                        Bitmap bitmap = null;
-                        if (config == null || config.isShowOriginal()) {
-                            bitmap = BitmapDecoder.decodeFileDescriptor(
-                                    snapshot.getInputStream(DISK_CACHE_INDEX).getFD());
-                        } else {
-                            bitmap = BitmapDecoder.decodeSampledBitmapFromDescriptor(
-                                    snapshot.getInputStream(DISK_CACHE_INDEX).getFD(),
-                                    config.getBitmapMaxSize(),
-                                    config.getBitmapConfig());
-                        }
-
-                        bitmap = rotateBitmapIfNeeded(uri, config, bitmap);
-                        addBitmapToMemoryCache(uri, config, bitmap, mDiskLruCache.getExpiryTimestamp(uri));
-                        return bitmap;
+        Bitmap thumbnail = getBitmapFromThumbnailCache(uri, config);
+        if (thumbnail != null || uri.startsWith("/")) {
+            return thumbnail;
+        }
+        Bitmap bitmap = null;
+        long expiryTimestamp = 0;
+        waitForDiskCacheReadied();
+        LruDiskCache diskCache = mDiskLruCache;
+        if (diskCache != null) {
+            LruDiskCache.Snapshot snapshot = null;
+            try {
+                snapshot = diskCache.get(uri);
+                if (snapshot != null) {
+                    if (config == null || config.isShowOriginal()) {
+                        bitmap = BitmapDecoder.decodeFileDescriptor(
+                                snapshot.getInputStream(DISK_CACHE_INDEX).getFD());
+                    } else {
+                        bitmap = BitmapDecoder.decodeSampledBitmapFromStream(
+                                snapshot.getInputStream(DISK_CACHE_INDEX),
+                                config.getBitmapMaxSize(),
+                                config.getBitmapConfig(),
+                                mReusePool);
                     }
-                } catch (Throwable e) {
-                    LogUtils.e(e.getMessage(), e);
-                } finally {
-                    IOUtils.closeQuietly(snapshot);
+
+                    bitmap = rotateBitmapIfNeeded(uri, config, bitmap);
+                    expiryTimestamp = diskCache.getExpiryTimestamp(uri);
+                    addBitmapToMemoryCache(uri, config, bitmap, expiryTimestamp);
                 }
+            } catch (Throwable e) {
+                LogUtils.e(e.getMessage(), e);
+            } finally {
+                IOUtils.closeQuietly(snapshot);
             }
-            return null;
         }
+        // the next cold lookup of this size decodes the small thumbnail instead of the original
+        addBitmapToThumbnailCache(uri, config, bitmap, expiryTimestamp);
+        return bitmap;
     }
     
     /**
@@ -425,6 +767,15 @@ public class BitmapCache {
                 mDiskLruCache = null;
                 isDiskCacheReadied = false;
             }
+            if (mThumbDiskCache != null && !mThumbDiskCache.isClosed()) {
+                try {
+                    mThumbDiskCache.delete();
+                } catch (Throwable e) {
+                    LogUtils.e(e.getMessage(), e);
+                }
+                mThumbDiskCache = null;
+                isDiskCacheReadied = false;
+            }
         }
         initDiskCache();
     }
@@ -436,19 +787,27 @@ public class BitmapCache {
     }
 
     public void clearMemoryCache(String uri) {
-        MemoryCacheKey key = new MemoryCacheKey(uri, null);
-        if (mMemoryCache != null) {
-            while (mMemoryCache.containsKey(key)) {
-                mMemoryCache.remove(key);
+        MemoryCache<MemoryCacheKey, Bitmap> memoryCache = mMemoryCache;
+        if (memoryCache != null && uri != null) {
+            // every size of the uri
+            for (MemoryCacheKey key : memoryCache.snapshot().keySet()) {
+                if (uri.equals(key.uri)) {
+                    memoryCache.remove(key);
+                }
             }
         }
     }
 
+    /**
+     * The thumbnails of a downloaded uri are only served while its original is in the disk cache,
+     * so removing the original also drops every thumbnail size of it.
+     */
     public void clearDiskCache(String uri) {
-        synchronized (mDiskCacheLock) {
-            if (mDiskLruCache != null && !mDiskLruCache.isClosed()) {
+        LruDiskCache diskCache = mDiskLruCache;
+        if (diskCache != null && !diskCache.isClosed()) {
+            synchronized (getKeyLock(uri)) {
                 try {
-                    mDiskLruCache.remove(uri);
+                    diskCache.remove(uri);
                 } catch (Throwable e) {
                     LogUtils.e(e.getMessage(), e);
                 }
@@ -469,6 +828,13 @@ public class BitmapCache {
                     LogUtils.e(e.getMessage(), e);
                 }
             }
+            if (mThumbDiskCache != null) {
+                try {
+                    mThumbDiskCache.flush();
+                } catch (Throwable e) {
+                    LogUtils.e(e.getMessage(), e);
+                }
+            }
         }
     }
 
@@ -488,6 +854,16 @@ public class BitmapCache {
                     LogUtils.e(e.getMessage(), e);
                 }
             }
+            if (mThumbDiskCache != null) {
+                try {
+                    if (!mThumbDiskCache.isClosed()) {
+                        mThumbDiskCache.close();
+                        mThumbDiskCache = null;
+                    }
+                } catch (Throwable e) {
+                    LogUtils.e(e.getMessage(), e);
+                }
+            }
         }
     }
 
@@ -504,10 +880,11 @@ public class BitmapCache {
             if (config == null || config.isShowOriginal()) {
                 bitmap = BitmapDecoder.decodeFileDescriptor(bitmapMeta.inputStream.getFD());
             } else {
-                bitmap = BitmapDecoder.decodeSampledBitmapFromDescriptor(
-                        bitmapMeta.inputStream.getFD(),
+                bitmap = BitmapDecoder.decodeSampledBitmapFromStream(
+                        bitmapMeta.inputStream,
                         config.getBitmapMaxSize(),
-                        config.getBitmapConfig());
+                        config.getBitmapConfig(),
+                        mReusePool);
             }
         } else if (bitmapMeta.data != null) {
             if (config == null || config.isShowOriginal()) {
@@ -516,7 +893,8 @@ public class BitmapCache {
                 bitmap = BitmapDecoder.decodeSampledBitmapFromByteArray(
                         bitmapMeta.data,
                         config.getBitmapMaxSize(),
-                        config.getBitmapConfig());
+                        config.getBitmapConfig(),
+                        mReusePool);
             }
         }
         return bitmap;
@@ -525,7 +903,8 @@ public class BitmapCache {
     private Bitmap rotateBitmapIfNeeded(String uri, BitmapDisplayConfig config, Bitmap bitmap) {
         Bitmap result = bitmap;
         if (config != null && config.isAutoRotation()) {
-            File bitmapFile = this.getBitmapFileFromDiskCache(uri);
+            // local images carry their own EXIF, no need to look them up in the disk cache
+            File bitmapFile = uri.startsWith("/") ? new File(uri) : this.getBitmapFileFromDiskCache(uri);
             if (bitmapFile != null && bitmapFile.exists()) {
                 ExifInterface exif = null;
                 try {
@@ -561,13 +940,26 @@ public class BitmapCache {
         return result;
     }
 
-    public class MemoryCacheKey {
+    /**
+     * Uri plus the display config fingerprint, the hash combines both and is computed once.
+     */
+    public static class MemoryCacheKey {
         private String uri;
-        private String subKey;
+        private long fingerprint;
+        private int hash;
+
+        private MemoryCacheKey(String uri, long fingerprint) {
+            set(uri, fingerprint);
+        }
 
-        private MemoryCacheKey(String uri, String subKey) {
+        private void set(String uri, long fingerprint) {
             this.uri = uri;
-            this.subKey = subKey;
+            this.fingerprint = fingerprint;
+            this.hash = 31 * (uri == null ? 0 : uri.hashCode()) + (int) (fingerprint ^ (fingerprint >>> 32));
+        }
+
+        public String getUri() {
+            return uri;
         }
 
         @Override
@@ -576,19 +968,13 @@ public class BitmapCache {
             if (!(o instanceof MemoryCacheKey)) return false;
 
             MemoryCacheKey that = (MemoryCacheKey) o;
-
-            if (!uri.equals(that.uri)) return false;
-
-            if (subKey != null && that.subKey != null) {
-                return subKey.equals(that.subKey);
-            }
-
-            return true;
+            return hash == that.hash && fingerprint == that.fingerprint
+                    && (uri == null ? that.uri == null : uri.equals(that.uri));
         }
 
         @Override
         public int hashCode() {
-            return uri.hashCode();
+            return hash;
         }
     }
 }
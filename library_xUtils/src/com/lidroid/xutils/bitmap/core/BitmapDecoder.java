@@ -15,20 +15,85 @@
 
 package com.lidroid.xutils.bitmap.core;
 
+import android.annotation.SuppressLint;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import com.lidroid.xutils.util.LogUtils;
 
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class BitmapDecoder {
 
+    private static final int TEMP_STORAGE_SIZE = 32 * 1024; // 32K
+
+    // each loader thread reuses its own Options and decode buffer
+    private static final ThreadLocal<BitmapFactory.Options> threadOptions = new ThreadLocal<BitmapFactory.Options>() {
+        @Override
+        protected BitmapFactory.Options initialValue() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inTempStorage = new byte[TEMP_STORAGE_SIZE];
+            return options;
+        }
+    };
+
     private BitmapDecoder() {
     }
 
+    /**
+     * Get the Options of the current thread, reset to the defaults of a new instance.
+     */
+    @SuppressLint("NewApi")
+    private static BitmapFactory.Options obtainOptions() {
+        final BitmapFactory.Options options = threadOptions.get();
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inDither = false;
+        options.inScaled = true;
+        options.inDensity = 0;
+        options.inTargetDensity = 0;
+        options.inScreenDensity = 0;
+        options.inPurgeable = false;
+        options.inInputShareable = false;
+        options.outWidth = 0;
+        options.outHeight = 0;
+        options.outMimeType = null;
+        if (BitmapReusePool.isReuseSupported()) {
+            options.inMutable = false;
+            options.inBitmap = null;
+        }
+        return options;
+    }
+
+    /**
+     * Read the image size from the head of the file, the file position is left unchanged.
+     *
+     * @param channel the channel of the caller's stream, closed with it.
+     * @return false if the size is not found in the head.
+     */
+    private static boolean readHeader(FileChannel channel, BitmapFactory.Options options) {
+        try {
+            long position = channel.position();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(options.inTempStorage);
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                }
+                return BitmapHeaderParser.parse(options.inTempStorage, buffer.position(), options);
+            } finally {
+                channel.position(position);
+            }
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+            return false;
+        }
+    }
+
     public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId, BitmapSize maxSize, Bitmap.Config config) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inJustDecodeBounds = true;
         options.inPurgeable = true;
         options.inInputShareable = true;
@@ -47,7 +112,7 @@ public class BitmapDecoder {
     }
 
     public static Bitmap decodeSampledBitmapFromFile(String filename, BitmapSize maxSize, Bitmap.Config config) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inJustDecodeBounds = true;
         options.inPurgeable = true;
         options.inInputShareable = true;
@@ -66,45 +131,123 @@ public class BitmapDecoder {
     }
 
     public static Bitmap decodeSampledBitmapFromDescriptor(FileDescriptor fileDescriptor, BitmapSize maxSize, Bitmap.Config config) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        return decodeSampledBitmapFromDescriptor(fileDescriptor, maxSize, config, null);
+    }
+
+    /**
+     * @param reusePool if not null, decode into a pooled bitmap when one fits.
+     */
+    public static Bitmap decodeSampledBitmapFromDescriptor(FileDescriptor fileDescriptor, BitmapSize maxSize, Bitmap.Config config, BitmapReusePool reusePool) {
+        return decodeSampledBitmapFromDescriptor(fileDescriptor, null, maxSize, config, reusePool);
+    }
+
+    /**
+     * Like {@link #decodeSampledBitmapFromDescriptor}, but the image size is read from the head of
+     * the stream through its channel instead of a bounds-only decode. The stream is not closed.
+     *
+     * @param reusePool if not null, decode into a pooled bitmap when one fits.
+     */
+    public static Bitmap decodeSampledBitmapFromStream(FileInputStream inputStream, BitmapSize maxSize, Bitmap.Config config, BitmapReusePool reusePool) throws IOException {
+        return decodeSampledBitmapFromDescriptor(inputStream.getFD(), inputStream.getChannel(), maxSize, config, reusePool);
+    }
+
+    private static Bitmap decodeSampledBitmapFromDescriptor(FileDescriptor fileDescriptor, FileChannel channel, BitmapSize maxSize, Bitmap.Config config, BitmapReusePool reusePool) {
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
-        BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        if (channel == null || !readHeader(channel, options)) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        }
         options.inSampleSize = calculateInSampleSize(options, maxSize.getWidth(), maxSize.getHeight());
         options.inJustDecodeBounds = false;
         if (config != null) {
             options.inPreferredConfig = config;
         }
         try {
+            if (addInBitmapOptions(options, reusePool)) {
+                try {
+                    return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+                } catch (IllegalArgumentException e) {
+                    // the pooled bitmap does not fit after all, decode into a new one
+                    clearInBitmapOptions(options);
+                }
+            }
             return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
         } catch (Throwable e) {
             LogUtils.e(e.getMessage(), e);
             return null;
+        } finally {
+            // the per-thread options must not keep the pooled bitmap alive
+            clearInBitmapOptions(options);
         }
     }
 
     public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, BitmapSize maxSize, Bitmap.Config config) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        return decodeSampledBitmapFromByteArray(data, maxSize, config, null);
+    }
+
+    /**
+     * @param reusePool if not null, decode into a pooled bitmap when one fits.
+     */
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, BitmapSize maxSize, Bitmap.Config config, BitmapReusePool reusePool) {
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!BitmapHeaderParser.parse(data, data.length, options)) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
         options.inSampleSize = calculateInSampleSize(options, maxSize.getWidth(), maxSize.getHeight());
         options.inJustDecodeBounds = false;
         if (config != null) {
             options.inPreferredConfig = config;
         }
         try {
+            if (addInBitmapOptions(options, reusePool)) {
+                try {
+                    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                } catch (IllegalArgumentException e) {
+                    // the pooled bitmap does not fit after all, decode into a new one
+                    clearInBitmapOptions(options);
+                }
+            }
             return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         } catch (Throwable e) {
             LogUtils.e(e.getMessage(), e);
             return null;
+        } finally {
+            clearInBitmapOptions(options);
+        }
+    }
+
+    /**
+     * Let the decode write into a pooled bitmap.
+     *
+     * @return true if a pooled bitmap was set as inBitmap.
+     */
+    @SuppressLint("NewApi")
+    private static boolean addInBitmapOptions(BitmapFactory.Options options, BitmapReusePool reusePool) {
+        if (reusePool == null || !BitmapReusePool.isReuseSupported()) return false;
+        // purgeable bitmaps can not be decoded into, so the result is kept mutable and not purgeable
+        options.inMutable = true;
+        options.inPurgeable = false;
+        options.inInputShareable = false;
+        Bitmap inBitmap = reusePool.get(options.outWidth, options.outHeight, options.inSampleSize, options.inPreferredConfig);
+        if (inBitmap == null) return false;
+        options.inBitmap = inBitmap;
+        return true;
+    }
+
+    @SuppressLint("NewApi")
+    private static void clearInBitmapOptions(BitmapFactory.Options options) {
+        if (BitmapReusePool.isReuseSupported()) {
+            options.inBitmap = null;
         }
     }
 
     public static Bitmap decodeResource(Resources res, int resId) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
         try {
@@ -116,7 +259,7 @@ public class BitmapDecoder {
     }
 
     public static Bitmap decodeFile(String filename) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
         try {
@@ -128,7 +271,7 @@ public class BitmapDecoder {
     }
 
     public static Bitmap decodeFileDescriptor(FileDescriptor fileDescriptor) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
         try {
@@ -140,7 +283,7 @@ public class BitmapDecoder {
     }
 
     public static Bitmap decodeByteArray(byte[] data) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final BitmapFactory.Options options = obtainOptions();
         options.inPurgeable = true;
         options.inInputShareable = true;
         try {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.core;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Reads the image size from the JPEG SOF or PNG IHDR header, so that sampling does not need
+ * an inJustDecodeBounds pass through BitmapFactory.
+ */
+public class BitmapHeaderParser {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private BitmapHeaderParser() {
+    }
+
+    /**
+     * Fill outWidth, outHeight and outMimeType of the options from the head of the image.
+     *
+     * @param data    the first bytes of the image
+     * @param length  number of valid bytes in data
+     * @param options
+     * @return false if the size is not found in these bytes.
+     */
+    public static boolean parse(byte[] data, int length, BitmapFactory.Options options) {
+        if (data == null || length > data.length) return false;
+        if (parsePng(data, length, options)) return true;
+        return parseJpeg(data, length, options);
+    }
+
+    private static boolean parsePng(byte[] data, int length, BitmapFactory.Options options) {
+        // signature(8), chunk length(4), "IHDR"(4), width(4), height(4)
+        if (length < 24) return false;
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (data[i] != PNG_SIGNATURE[i]) return false;
+        }
+        if (data[12] != 'I' || data[13] != 'H' || data[14] != 'D' || data[15] != 'R') return false;
+        int width = readInt(data, 16);
+        int height = readInt(data, 20);
+        if (width <= 0 || height <= 0) return false;
+        options.outWidth = width;
+        options.outHeight = height;
+        options.outMimeType = "image/png";
+        return true;
+    }
+
+    private static boolean parseJpeg(byte[] data, int length, BitmapFactory.Options options) {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) return false;
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if ((data[offset] & 0xFF) != 0xFF) return false;
+            int marker = data[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without a segment
+                offset += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan before any frame header
+                return false;
+            }
+            int segmentLength = readShort(data, offset + 2);
+            if (segmentLength < 2) return false;
+            if (isStartOfFrame(marker)) {
+                // length(2), precision(1), height(2), width(2)
+                if (offset + 9 > length) return false;
+                int height = readShort(data, offset + 5);
+                int width = readShort(data, offset + 7);
+                if (width <= 0 || height <= 0) return false;
+                options.outWidth = width;
+                options.outHeight = height;
+                options.outMimeType = "image/jpeg";
+                return true;
+            }
+            offset += 2 + segmentLength;
+        }
+        return false;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 // DHT
+                && marker != 0xC8 // JPG
+                && marker != 0xCC; // DAC
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.core;
+
+import android.graphics.Bitmap;
+import com.lidroid.xutils.BitmapUtils;
+import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry of the bitmap loads in flight. Concurrent requests of the same uri and
+ * display size join the running load instead of downloading and decoding the image again.
+ */
+public class BitmapLoadRegistry {
+
+    private static final ConcurrentHashMap<String, InFlightLoad> inFlightLoads = new ConcurrentHashMap<String, InFlightLoad>();
+
+    private static final AtomicLong loadCount = new AtomicLong();
+    private static final AtomicLong joinCount = new AtomicLong();
+
+    private BitmapLoadRegistry() {
+    }
+
+    public interface BitmapLoader {
+        Bitmap load();
+    }
+
+    /**
+     * Run the loader, or wait for the same load started by another task.
+     * <p/>
+     * The loader must return the bitmap held in reusePool (see {@link BitmapReusePool#hold}), as the
+     * memory cache does for every bitmap it is given. The load holds it once more for each task which
+     * joined, so every caller gets the bitmap held and must release it after attaching it.
+     *
+     * @param uri
+     * @param config
+     * @param task      the task asking for the bitmap
+     * @param reusePool
+     * @param loader
+     * @return null if the load failed or the task was cancelled while waiting.
+     */
+    public static Bitmap load(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task,
+                              BitmapReusePool reusePool, BitmapLoader loader) {
+        String key = config == null ? uri : uri + config.toString();
+        while (true) {
+            InFlightLoad load = new InFlightLoad();
+            InFlightLoad runningLoad = inFlightLoads.putIfAbsent(key, load);
+            if (runningLoad == null) {
+                loadCount.incrementAndGet();
+                Bitmap bitmap = null;
+                try {
+                    bitmap = loader.load();
+                } finally {
+                    synchronized (load) {
+                        load.bitmap = bitmap;
+                        load.abandoned = bitmap == null && (task.isCancelled() || task.getTargetContainer() == null);
+                        load.finished = true;
+                        for (int i = 0; i < load.joinerCount; i++) {
+                            reusePool.hold(bitmap);
+                        }
+                    }
+                    inFlightLoads.remove(key, load);
+                    load.latch.countDown();
+                }
+                return bitmap;
+            }
+
+            synchronized (runningLoad) {
+                if (runningLoad.finished) {
+                    // finished before this task joined, nothing was held for it
+                    continue;
+                }
+                runningLoad.joinerCount++;
+            }
+            joinCount.incrementAndGet();
+            try {
+                runningLoad.latch.await();
+            } catch (InterruptedException e) {
+                synchronized (runningLoad) {
+                    if (runningLoad.finished) {
+                        reusePool.release(runningLoad.bitmap);
+                    } else {
+                        runningLoad.joinerCount--;
+                    }
+                }
+                return null;
+            }
+            if (!runningLoad.abandoned) {
+                return runningLoad.bitmap;
+            }
+            // the task running the load gave up, load again on behalf of this one
+            if (task.isCancelled() || task.getTargetContainer() == null) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of loads actually run.
+     */
+    public static long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return the number of requests which joined a load already in flight.
+     */
+    public static long getJoinCount() {
+        return joinCount.get();
+    }
+
+    public static int getInFlightCount() {
+        return inFlightLoads.size();
+    }
+
+    private static class InFlightLoad {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Bitmap bitmap;
+        private volatile boolean abandoned;
+        // guarded by this
+        private boolean finished;
+        private int joinerCount;
+    }
+}
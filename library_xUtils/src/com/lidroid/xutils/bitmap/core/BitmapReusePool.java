@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.core;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.view.View;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Bitmaps evicted from the memory cache, kept for BitmapFactory.Options.inBitmap.
+ * <p/>
+ * A bitmap is never handed out for reuse while a container shows it (see {@link #attach})
+ * or while the load which decoded it has not reached its container yet (see {@link #hold}).
+ * <p/>
+ * All methods synchronize on the pool, so holding its monitor around a memory cache lookup and
+ * {@link #hold} keeps the bitmap found from being taken for reuse in between.
+ */
+public class BitmapReusePool {
+
+    // inBitmap needs HONEYCOMB, reusing a larger bitmap for a sampled decode needs KITKAT
+    private static final int SDK_INT_HONEYCOMB = 11;
+    private static final int SDK_INT_KITKAT = 19;
+
+    private int maxSize;
+    private int size;
+
+    // byte count -> bitmaps of that size, oldest first
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+    // bitmap -> byte count, oldest first
+    private final LinkedHashMap<Bitmap, Integer> pooledBitmaps = new LinkedHashMap<Bitmap, Integer>();
+
+    private final WeakHashMap<View, Bitmap> attachedBitmaps = new WeakHashMap<View, Bitmap>();
+    private final WeakHashMap<Bitmap, Integer> heldBitmaps = new WeakHashMap<Bitmap, Integer>();
+
+    /**
+     * @param maxSize the maximum sum of the byte counts of the pooled bitmaps.
+     */
+    public BitmapReusePool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static boolean isReuseSupported() {
+        return Build.VERSION.SDK_INT >= SDK_INT_HONEYCOMB;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Keep the bitmap away from reuse until {@link #release} is called, a newly decoded bitmap
+     * may be evicted from the memory cache before it is shown.
+     */
+    public synchronized void hold(Bitmap bitmap) {
+        if (bitmap == null) return;
+        Integer count = heldBitmaps.get(bitmap);
+        heldBitmaps.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null) return;
+        Integer count = heldBitmaps.get(bitmap);
+        if (count == null || count <= 1) {
+            heldBitmaps.remove(bitmap);
+        } else {
+            heldBitmaps.put(bitmap, count - 1);
+        }
+    }
+
+    /**
+     * Record the bitmap shown by the container, the one it showed before may be reused.
+     */
+    public synchronized void attach(View container, Bitmap bitmap) {
+        if (container == null) return;
+        if (bitmap == null) {
+            attachedBitmaps.remove(container);
+        } else {
+            attachedBitmaps.put(container, bitmap);
+        }
+    }
+
+    public void detach(View container) {
+        attach(container, null);
+    }
+
+    /**
+     * Offer a bitmap removed from the memory cache.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (!isReuseSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        int byteCount = getByteCount(bitmap);
+        if (byteCount > maxSize) return;
+
+        if (pooledBitmaps.containsKey(bitmap)) return;
+
+        LinkedList<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            buckets.put(byteCount, bucket);
+        }
+        bucket.addLast(bitmap);
+        pooledBitmaps.put(bitmap, byteCount);
+        size += byteCount;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Take a bitmap a decode of the given size can write into.
+     *
+     * @param width        width of the source image
+     * @param height       height of the source image
+     * @param inSampleSize
+     * @param config
+     * @return null if no pooled bitmap fits.
+     */
+    public synchronized Bitmap get(int width, int height, int inSampleSize, Bitmap.Config config) {
+        if (!isReuseSupported() || width <= 0 || height <= 0) return null;
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        inSampleSize = Math.max(1, inSampleSize);
+        int targetWidth = (width + inSampleSize - 1) / inSampleSize;
+        int targetHeight = (height + inSampleSize - 1) / inSampleSize;
+        int byteCount = targetWidth * targetHeight * getBytesPerPixel(config);
+
+        if (Build.VERSION.SDK_INT >= SDK_INT_KITKAT) {
+            // any bitmap which is large enough, but not wastefully so
+            Integer[] bucketSizes = buckets.subMap(byteCount, byteCount * 2 + 1).keySet().toArray(new Integer[0]);
+            for (Integer bucketSize : bucketSizes) {
+                Bitmap bitmap = takeFromBucket(bucketSize, -1, -1, null);
+                if (bitmap != null) return bitmap;
+            }
+        } else if (inSampleSize == 1) {
+            return takeFromBucket(byteCount, targetWidth, targetHeight, config);
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        buckets.clear();
+        pooledBitmaps.clear();
+        size = 0;
+    }
+
+    private Bitmap takeFromBucket(int byteCount, int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket == null) return null;
+        Bitmap result = null;
+        Iterator<Bitmap> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.isRecycled()) {
+                iterator.remove();
+                removePooled(bitmap);
+                continue;
+            }
+            if (width > 0 && (bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != config)) {
+                continue;
+            }
+            if (heldBitmaps.containsKey(bitmap) || attachedBitmaps.containsValue(bitmap)) {
+                continue;
+            }
+            iterator.remove();
+            removePooled(bitmap);
+            result = bitmap;
+            break;
+        }
+        removeEmptyBucket(byteCount);
+        return result;
+    }
+
+    private void removePooled(Bitmap bitmap) {
+        Integer byteCount = pooledBitmaps.remove(bitmap);
+        if (byteCount != null) {
+            size -= byteCount;
+        }
+    }
+
+    private void removeEmptyBucket(int byteCount) {
+        LinkedList<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket != null && bucket.isEmpty()) {
+            buckets.remove(byteCount);
+        }
+    }
+
+    private void trimToSize(int maxSize) {
+        while (size > maxSize && !pooledBitmaps.isEmpty()) {
+            Map.Entry<Bitmap, Integer> eldest = pooledBitmaps.entrySet().iterator().next();
+            Bitmap bitmap = eldest.getKey();
+            int byteCount = eldest.getValue();
+            removePooled(bitmap);
+            LinkedList<Bitmap> bucket = buckets.get(byteCount);
+            if (bucket != null) {
+                bucket.remove(bitmap);
+                removeEmptyBucket(byteCount);
+            }
+        }
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.download;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import com.lidroid.xutils.BitmapUtils;
+import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
+import com.lidroid.xutils.bitmap.core.BitmapDecoder;
+import com.lidroid.xutils.bitmap.core.BitmapSize;
+import com.lidroid.xutils.util.LogUtils;
+
+/**
+ * Loads the thumbnail embedded in the EXIF data of a local JPEG (usually 160x120).
+ */
+public class ExifThumbnailSource extends ThumbnailSource {
+
+    /**
+     * DCF limits the embedded thumbnail to 160x120, so larger targets skip the file entirely.
+     */
+    public static final int MAX_THUMBNAIL_SIZE = 160;
+
+    @Override
+    public Bitmap getThumbnail(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task) {
+        if (uri == null || !uri.startsWith("/")) return null;
+        BitmapSize maxSize = config.getBitmapMaxSize();
+        if (Math.max(maxSize.getWidth(), maxSize.getHeight()) > MAX_THUMBNAIL_SIZE) return null;
+        String lowerUri = uri.toLowerCase();
+        if (!lowerUri.endsWith(".jpg") && !lowerUri.endsWith(".jpeg")) return null;
+
+        try {
+            byte[] data = getThumbnailBytes(uri);
+            return decodeThumbnail(data, config);
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the raw JPEG bytes of the embedded thumbnail.
+     *
+     * @param path
+     * @return null if the file has no embedded thumbnail.
+     */
+    protected byte[] getThumbnailBytes(String path) throws Exception {
+        ExifInterface exif = new ExifInterface(path);
+        return exif.hasThumbnail() ? exif.getThumbnail() : null;
+    }
+
+    /**
+     * Decode thumbnail bytes if they are large enough for config, checking the bounds first.
+     */
+    public static Bitmap decodeThumbnail(byte[] data, BitmapDisplayConfig config) {
+        if (data == null || data.length == 0) return null;
+        BitmapSize maxSize = config.getBitmapMaxSize();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!isLargeEnough(options.outWidth, options.outHeight, maxSize)) return null;
+        return BitmapDecoder.decodeSampledBitmapFromByteArray(data, maxSize, config.getBitmapConfig());
+    }
+}
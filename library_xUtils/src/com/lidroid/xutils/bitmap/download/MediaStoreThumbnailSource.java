@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.download;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.provider.MediaStore;
+import com.lidroid.xutils.BitmapUtils;
+import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
+import com.lidroid.xutils.bitmap.core.BitmapSize;
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads the system generated thumbnail (MINI_KIND 512px / MICRO_KIND 96px) of a local image.
+ * <p>
+ * Image ids are looked up one folder at a time and cached by path, so scrolling a grid
+ * does not run a ContentResolver query per cell.
+ */
+public class MediaStoreThumbnailSource extends ThumbnailSource {
+
+    private static final int MINI_KIND_SIZE = 512;
+    private static final int MICRO_KIND_SIZE = 96;
+
+    private static final int MAX_CACHED_IDS = 2048;
+    private static final int MAX_LOADED_FOLDERS = 16;
+
+    private static final String[] ID_PROJECTION = new String[]{MediaStore.Images.Media._ID};
+    private static final String[] ID_DATA_PROJECTION = new String[]{MediaStore.Images.Media._ID, MediaStore.Images.Media.DATA};
+
+    // path -> MediaStore id, guarded by itself
+    private final LinkedHashMap<String, Long> idCache = new LinkedHashMap<String, Long>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CACHED_IDS;
+        }
+    };
+
+    // folders whose ids are already in idCache, guarded by idCache
+    private final LinkedHashMap<String, Boolean> loadedFolders = new LinkedHashMap<String, Boolean>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_LOADED_FOLDERS;
+        }
+    };
+
+    @Override
+    public Bitmap getThumbnail(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task) {
+        if (uri == null || !uri.startsWith("/") || this.getContext() == null) return null;
+
+        BitmapSize maxSize = config.getBitmapMaxSize();
+        int kind;
+        // MICRO_KIND is center cropped, so only use it for small square-ish targets.
+        if (maxSize.getWidth() <= MICRO_KIND_SIZE && maxSize.getHeight() <= MICRO_KIND_SIZE) {
+            kind = MediaStore.Images.Thumbnails.MICRO_KIND;
+        } else if (maxSize.getWidth() <= MINI_KIND_SIZE && maxSize.getHeight() <= MINI_KIND_SIZE) {
+            kind = MediaStore.Images.Thumbnails.MINI_KIND;
+        } else {
+            return null;
+        }
+
+        ContentResolver resolver = this.getContext().getContentResolver();
+        long id = getImageId(resolver, uri);
+        if (id < 0) return null;
+        if (task != null && (task.isCancelled() || task.getTargetContainer() == null)) return null;
+
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = config.getBitmapConfig();
+            Bitmap bitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, id, kind, options);
+            if (bitmap == null) {
+                // the cached id may belong to a deleted image
+                synchronized (idCache) {
+                    idCache.remove(uri);
+                }
+            }
+            if (bitmap != null && !isLargeEnough(bitmap.getWidth(), bitmap.getHeight(), maxSize)) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+            return bitmap;
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private long getImageId(ContentResolver resolver, String path) {
+        int slash = path.lastIndexOf('/');
+        String folder = slash > 0 ? path.substring(0, slash) : null;
+        boolean loadFolder;
+        synchronized (idCache) {
+            Long id = idCache.get(path);
+            if (id != null) return id;
+            loadFolder = folder != null && loadedFolders.get(folder) == null;
+        }
+
+        if (loadFolder) {
+            queryFolderIds(resolver, folder);
+            synchronized (idCache) {
+                Long id = idCache.get(path);
+                if (id != null) return id;
+            }
+        }
+
+        // added after the folder was loaded, or not in a folder at all
+        long id = queryImageId(resolver, path);
+        if (id >= 0) {
+            synchronized (idCache) {
+                idCache.put(path, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Cache the ids of all images directly inside folder with one query.
+     * The range "folder/" <= _data < "folder0" matches every path under folder ('0' follows '/').
+     */
+    private void queryFolderIds(ContentResolver resolver, String folder) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, ID_DATA_PROJECTION,
+                    MediaStore.Images.Media.DATA + ">=? and " + MediaStore.Images.Media.DATA + "<?",
+                    new String[]{folder + "/", folder + "0"}, null);
+            if (cursor == null) return;
+            int prefixLength = folder.length() + 1;
+            int count = 0;
+            while (count < MAX_CACHED_IDS && cursor.moveToNext()) {
+                String path = cursor.getString(1);
+                // skip images in sub folders
+                if (path == null || path.indexOf('/', prefixLength) >= 0) continue;
+                long id = cursor.getLong(0);
+                synchronized (idCache) {
+                    idCache.put(path, id);
+                }
+                count++;
+            }
+            synchronized (idCache) {
+                loadedFolders.put(folder, Boolean.TRUE);
+            }
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private long queryImageId(ContentResolver resolver, String path) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, ID_PROJECTION,
+                    MediaStore.Images.Media.DATA + "=?", new String[]{path}, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } catch (Throwable e) {
+            LogUtils.e(e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+}
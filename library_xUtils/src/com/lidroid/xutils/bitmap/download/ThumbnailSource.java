@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.download;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import com.lidroid.xutils.BitmapUtils;
+import com.lidroid.xutils.bitmap.BitmapDisplayConfig;
+import com.lidroid.xutils.bitmap.core.BitmapSize;
+
+/**
+ * A cheap source of pre-scaled bitmaps for local images, tried before the
+ * disk cache and the full sampled decode.
+ */
+public abstract class ThumbnailSource {
+
+    /**
+     * Get a thumbnail of the local image which is large enough for config.getBitmapMaxSize().
+     *
+     * @param uri
+     * @param config
+     * @param task
+     * @return The thumbnail, or null if this source has none large enough.
+     */
+    public abstract Bitmap getThumbnail(String uri, BitmapDisplayConfig config, final BitmapUtils.BitmapLoadTask<?> task);
+
+    private Context context;
+
+    public Context getContext() {
+        return context;
+    }
+
+    public void setContext(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Whether a thumbnail of the given size can stand in for a sampled decode to maxSize.
+     */
+    public static boolean isLargeEnough(int width, int height, BitmapSize maxSize) {
+        if (width <= 0 || height <= 0) return false;
+        return Math.max(width, height) >= Math.max(maxSize.getWidth(), maxSize.getHeight());
+    }
+}
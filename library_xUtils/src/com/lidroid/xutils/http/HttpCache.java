@@ -18,6 +18,8 @@ package com.lidroid.xutils.http;
 import android.text.TextUtils;
 import com.lidroid.xutils.http.client.HttpRequest;
 import com.lidroid.xutils.util.core.LruMemoryCache;
+import com.lidroid.xutils.util.core.MemoryCache;
+import com.lidroid.xutils.util.core.SegmentedLruMemoryCache;
 
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,7 +34,7 @@ public class HttpCache {
      * key: url
      * value: response result
      */
-    private final LruMemoryCache<String, String> mMemoryCache;
+    private final MemoryCache<String, String> mMemoryCache;
 
     private final static int DEFAULT_CACHE_SIZE = 1024 * 100;// string length
     private final static long DEFAULT_EXPIRY_TIME = 1000 * 60; // 60 seconds
@@ -49,16 +51,33 @@ public class HttpCache {
     }
 
     public HttpCache(int strLength, long defaultExpiryTime) {
+        this(strLength, defaultExpiryTime, 0);
+    }
+
+    /**
+     * @param segmentCount split the cache into segments with their own locks, 0 or 1 for a single LRU map.
+     */
+    public HttpCache(int strLength, long defaultExpiryTime, int segmentCount) {
         this.cacheSize = strLength;
         HttpCache.defaultExpiryTime = defaultExpiryTime;
 
-        mMemoryCache = new LruMemoryCache<String, String>(this.cacheSize) {
-            @Override
-            protected int sizeOf(String key, String value) {
-                if (value == null) return 0;
-                return value.length();
-            }
-        };
+        if (segmentCount > 1) {
+            mMemoryCache = new SegmentedLruMemoryCache<String, String>(this.cacheSize, segmentCount) {
+                @Override
+                protected int sizeOf(String key, String value) {
+                    if (value == null) return 0;
+                    return value.length();
+                }
+            };
+        } else {
+            mMemoryCache = new LruMemoryCache<String, String>(this.cacheSize) {
+                @Override
+                protected int sizeOf(String key, String value) {
+                    if (value == null) return 0;
+                    return value.length();
+                }
+            };
+        }
     }
 
     public void setCacheSize(int strLength) {
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+/**
+ * Decides which entry {@link LruMemoryCache} evicts when it is full.
+ * <p/>
+ * The cache calls these methods while holding its lock, so a policy needs no synchronization
+ * of its own and must not call back into the cache.
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * @param maxSize the maximum size of the cache, in the units of {@link LruMemoryCache#sizeOf}.
+     */
+    void setMaxSize(int maxSize);
+
+    /**
+     * A {@link LruMemoryCache#get} found the key.
+     */
+    void recordHit(K key);
+
+    /**
+     * A {@link LruMemoryCache#get} did not find the key.
+     */
+    void recordMiss(K key);
+
+    /**
+     * The key was added to the cache, or its value was replaced.
+     */
+    void recordAdd(K key, int size);
+
+    /**
+     * The key was removed from the cache, either by the cache itself or after {@link #nextVictim}.
+     */
+    void recordRemove(K key);
+
+    /**
+     * @return the key to evict next, or null to fall back to the least recently used one.
+     */
+    K nextVictim();
+
+    void clear();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+/**
+ * A fixed set of lock objects striped by key: requests of the same key always get the same lock,
+ * different keys mostly get different ones. Nothing is allocated per key.
+ */
+public class KeyLocks {
+
+    private final Object[] locks;
+
+    /**
+     * @param stripes the number of locks, keys sharing a lock wait for each other.
+     */
+    public KeyLocks(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes <= 0");
+        }
+        locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Object get(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % locks.length];
+    }
+}
@@ -24,8 +24,10 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -33,6 +35,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * A cache that uses a bounded amount of space on a filesystem. Each cache
@@ -90,6 +93,18 @@ public final class LruDiskCache implements Closeable {
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
 
+    static final int BINARY_MAGIC = 0x4C52554A; // "LRUJ"
+    static final int BINARY_VERSION = 1;
+    private static final int BINARY_HEADER_LENGTH = 16;
+    private static final int HASH_KEY_LENGTH = 16;
+    private static final int BINARY_READ_BUFFER_RECORDS = 256;
+    private static final int READ_BATCH_SIZE = 64;
+    private static final byte OP_CLEAN = 1;
+    private static final byte OP_DIRTY = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_READ = 4;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /*
      * This cache uses a journal file named "journal". A typical journal file
      * looks like this:
@@ -128,6 +143,26 @@ public final class LruDiskCache implements Closeable {
      * occasionally be compacted by dropping redundant lines. A temporary file named
      * "journal.tmp" will be used during compaction; that file should be deleted if
      * it exists when the cache is opened.
+     *
+     * When every disk key is a 32 digit lowercase hex string, as produced by the
+     * default MD5DiskCacheFileNameGenerator, the journal is written in a binary
+     * form instead. Its header is four big-endian ints: BINARY_MAGIC,
+     * BINARY_VERSION, the application's version and the value count. It is
+     * followed by fixed-width records:
+     *     op               1 byte, one of OP_CLEAN, OP_DIRTY, OP_REMOVE, OP_READ
+     *     key              16 bytes, the hex disk key packed
+     *     sequence         8 bytes, the entry's sequence number
+     *     expiryTimestamp  8 bytes
+     *     lengths          8 bytes for each value
+     *     checksum         4 bytes, CRC32 of the preceding bytes of the record
+     * A record with a bad checksum or a torn record at the end of the file ends
+     * the journal, it is truncated there when the cache is opened. A text journal
+     * is rewritten in the binary form when it is opened, and a binary journal
+     * falls back to text when a key that can't be packed is edited.
+     *
+     * In both forms READ records are batched: they are written when
+     * READ_BATCH_SIZE of them are pending or before any other record, and
+     * repeated reads of one entry within a batch are written once.
      */
 
     private final File directory;
@@ -138,9 +173,9 @@ public final class LruDiskCache implements Closeable {
     private long maxSize;
     private final int valueCount;
     private long size = 0;
-    private Writer journalWriter;
-    private final LinkedHashMap<String, Entry> lruEntries =
-            new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private JournalWriter journalWriter;
+    private boolean binaryJournal;
+    private final EntryMap lruEntries = new EntryMap();
     private int redundantOpCount;
 
     /**
@@ -215,10 +250,17 @@ public final class LruDiskCache implements Closeable {
         LruDiskCache cache = new LruDiskCache(directory, appVersion, valueCount, maxSize);
         if (cache.journalFile.exists()) {
             try {
+                long startTime = System.currentTimeMillis();
                 cache.readJournal();
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(cache.journalFile, true), HTTP.US_ASCII));
+                if (!cache.binaryJournal && cache.isBinaryJournalSupported()) {
+                    // Migrate a text journal to the binary form.
+                    cache.rebuildJournal();
+                } else {
+                    cache.journalWriter = cache.newJournalWriter(cache.journalFile, true, cache.binaryJournal);
+                }
+                LogUtils.d("DiskLruCache " + directory + " opened " + cache.lruEntries.size()
+                        + " entries in " + (System.currentTimeMillis() - startTime) + "ms");
                 return cache;
             } catch (Throwable journalIsCorrupt) {
                 LogUtils.e("DiskLruCache "
@@ -238,6 +280,105 @@ public final class LruDiskCache implements Closeable {
     }
 
     private void readJournal() throws IOException {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(journalFile, "rw");
+            if (file.length() >= BINARY_HEADER_LENGTH && file.readInt() == BINARY_MAGIC) {
+                readBinaryJournal(file);
+                binaryJournal = true;
+                return;
+            }
+        } finally {
+            IOUtils.closeQuietly(file);
+        }
+        readTextJournal();
+        binaryJournal = false;
+    }
+
+    private void readBinaryJournal(RandomAccessFile file) throws IOException {
+        int version = file.readInt();
+        int appVersionValue = file.readInt();
+        int valueCountValue = file.readInt();
+        if (version != BINARY_VERSION || appVersionValue != appVersion || valueCountValue != valueCount) {
+            throw new IOException("unexpected journal header: [" + version + ", " + appVersionValue + ", "
+                    + valueCountValue + "]");
+        }
+
+        int recordLength = getBinaryRecordLength();
+        byte[] buffer = new byte[recordLength * BINARY_READ_BUFFER_RECORDS];
+        CRC32 crc = new CRC32();
+        long validLength = BINARY_HEADER_LENGTH;
+        int recordCount = 0;
+        int count = 0;
+        boolean corrupt = false;
+        int read;
+        while (!corrupt && (read = file.read(buffer, count, buffer.length - count)) != -1) {
+            count += read;
+            int offset = 0;
+            while (count - offset >= recordLength) {
+                crc.reset();
+                crc.update(buffer, offset, recordLength - 4);
+                if ((int) crc.getValue() != readInt(buffer, offset + recordLength - 4)) {
+                    corrupt = true;
+                    break;
+                }
+                readBinaryRecord(buffer, offset);
+                offset += recordLength;
+                validLength += recordLength;
+                recordCount++;
+            }
+            System.arraycopy(buffer, offset, buffer, 0, count - offset);
+            count -= offset;
+        }
+
+        if (validLength < file.length()) {
+            // Drop the torn or corrupt tail so that new records follow a valid one.
+            LogUtils.w("DiskLruCache " + directory + " journal truncated at record " + recordCount);
+            file.setLength(validLength);
+        }
+        redundantOpCount = recordCount - lruEntries.size();
+    }
+
+    private void readBinaryRecord(byte[] buffer, int offset) throws IOException {
+        byte op = buffer[offset];
+        String diskKey = hashKeyToString(buffer, offset + 1);
+        if (op == OP_REMOVE) {
+            lruEntries.remove(diskKey);
+            return;
+        }
+
+        Entry entry = lruEntries.get(diskKey);
+        if (entry == null) {
+            entry = new Entry(diskKey);
+            lruEntries.put(diskKey, entry);
+        }
+
+        int position = offset + 1 + HASH_KEY_LENGTH;
+        switch (op) {
+            case OP_CLEAN:
+                entry.readable = true;
+                entry.currentEditor = null;
+                entry.sequenceNumber = readLong(buffer, position);
+                entry.expiryTimestamp = readLong(buffer, position + 8);
+                for (int i = 0; i < valueCount; i++) {
+                    entry.lengths[i] = readLong(buffer, position + 16 + 8 * i);
+                }
+                if (entry.sequenceNumber >= nextSequenceNumber) {
+                    nextSequenceNumber = entry.sequenceNumber + 1;
+                }
+                break;
+            case OP_DIRTY:
+                entry.currentEditor = new Editor(entry);
+                break;
+            case OP_READ:
+                // This work was already done by calling lruEntries.get().
+                break;
+            default:
+                throw new IOException("unexpected journal record: " + op);
+        }
+    }
+
+    private void readTextJournal() throws IOException {
         StrictLineReader reader = null;
         try {
             reader = new StrictLineReader(new FileInputStream(journalFile));
@@ -340,6 +481,7 @@ public final class LruDiskCache implements Closeable {
                     deleteIfExists(entry.getDirtyFile(t));
                 }
                 i.remove();
+                lruEntries.unindex(entry.diskKey);
             }
         }
     }
@@ -353,25 +495,15 @@ public final class LruDiskCache implements Closeable {
             IOUtils.closeQuietly(journalWriter);
         }
 
-        Writer writer = null;
+        binaryJournal = isBinaryJournalSupported();
+        JournalWriter writer = null;
         try {
-            writer = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(journalFileTmp), HTTP.US_ASCII));
-            writer.write(MAGIC);
-            writer.write("\n");
-            writer.write(VERSION_1);
-            writer.write("\n");
-            writer.write(Integer.toString(appVersion));
-            writer.write("\n");
-            writer.write(Integer.toString(valueCount));
-            writer.write("\n");
-            writer.write("\n");
-
+            writer = newJournalWriter(journalFileTmp, false, binaryJournal);
             for (Entry entry : lruEntries.values()) {
                 if (entry.currentEditor != null) {
-                    writer.write(DIRTY + ' ' + entry.diskKey + '\n');
+                    writer.writeDirty(entry);
                 } else {
-                    writer.write(CLEAN + ' ' + entry.diskKey + " t_" + entry.expiryTimestamp + entry.getLengths() + '\n');
+                    writer.writeClean(entry);
                 }
             }
         } finally {
@@ -384,8 +516,28 @@ public final class LruDiskCache implements Closeable {
         renameTo(journalFileTmp, journalFile, false);
         journalFileBackup.delete();
 
-        journalWriter = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(journalFile, true), HTTP.US_ASCII));
+        journalWriter = newJournalWriter(journalFile, true, binaryJournal);
+    }
+
+    private JournalWriter newJournalWriter(File file, boolean append, boolean binary) throws IOException {
+        if (binary) {
+            return new BinaryJournalWriter(file, append);
+        } else {
+            return new TextJournalWriter(file, append);
+        }
+    }
+
+    private boolean isBinaryJournalSupported() {
+        for (String diskKey : lruEntries.keySet()) {
+            if (!isHashKey(diskKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getBinaryRecordLength() {
+        return 1 + HASH_KEY_LENGTH + 8 + 8 + 8 * valueCount + 4;
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -415,6 +567,18 @@ public final class LruDiskCache implements Closeable {
         }
     }
 
+    /**
+     * Returns true if key has a readable entry that has not expired. Unlike
+     * {@link #get} this doesn't open the files or move the entry in the LRU queue.
+     */
+    public synchronized boolean contains(String key) throws IOException {
+        String diskKey = diskCacheFileNameGenerator.generate(key);
+        checkNotClosed();
+        validateKey(diskKey);
+        Entry entry = lruEntries.peek(diskKey);
+        return entry != null && entry.readable && entry.expiryTimestamp >= System.currentTimeMillis();
+    }
+
     public File getCacheFile(String key, int index) {
         String diskKey = diskCacheFileNameGenerator.generate(key);
         return new File(this.directory, diskKey + "." + index);
@@ -453,7 +617,7 @@ public final class LruDiskCache implements Closeable {
                 entry.lengths[i] = 0;
             }
             redundantOpCount++;
-            journalWriter.append(REMOVE + ' ' + diskKey + '\n');
+            journalWriter.writeRemove(entry);
             lruEntries.remove(diskKey);
             if (journalRebuildRequired()) {
                 executorService.submit(cleanupCallable);
@@ -481,8 +645,7 @@ public final class LruDiskCache implements Closeable {
             return null;
         }
 
-        redundantOpCount++;
-        journalWriter.append(READ + ' ' + diskKey + '\n');
+        journalWriter.writeRead(entry);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
@@ -518,7 +681,13 @@ public final class LruDiskCache implements Closeable {
         entry.currentEditor = editor;
 
         // Flush the journal before creating files to prevent file leaks.
-        journalWriter.write(DIRTY + ' ' + diskKey + '\n');
+        if (binaryJournal && !isHashKey(diskKey)) {
+            // The binary journal can't hold this key, the rebuilt text journal records the edit.
+            rebuildJournal();
+            redundantOpCount = 0;
+        } else {
+            journalWriter.writeDirty(entry);
+        }
         journalWriter.flush();
         return editor;
     }
@@ -596,13 +765,13 @@ public final class LruDiskCache implements Closeable {
         entry.currentEditor = null;
         if (entry.readable | success) {
             entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.diskKey + " t_" + entry.expiryTimestamp + entry.getLengths() + '\n');
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
             }
+            journalWriter.writeClean(entry);
         } else {
             lruEntries.remove(entry.diskKey);
-            journalWriter.write(REMOVE + ' ' + entry.diskKey + '\n');
+            journalWriter.writeRemove(entry);
         }
         journalWriter.flush();
 
@@ -650,7 +819,7 @@ public final class LruDiskCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + diskKey + '\n');
+        journalWriter.writeRemove(entry);
         lruEntries.remove(diskKey);
 
         if (journalRebuildRequired()) {
@@ -724,6 +893,39 @@ public final class LruDiskCache implements Closeable {
         }
     }
 
+    /**
+     * True if {@code diskKey} fits the key field of a binary journal record.
+     */
+    private static boolean isHashKey(String diskKey) {
+        if (diskKey.length() != HASH_KEY_LENGTH * 2) {
+            return false;
+        }
+        for (int i = 0; i < diskKey.length(); i++) {
+            char c = diskKey.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String hashKeyToString(byte[] buffer, int offset) {
+        char[] chars = new char[HASH_KEY_LENGTH * 2];
+        for (int i = 0; i < HASH_KEY_LENGTH; i++) {
+            int b = buffer[offset + i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[b >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static void hashKeyToBytes(String diskKey, byte[] buffer, int offset) {
+        for (int i = 0; i < HASH_KEY_LENGTH; i++) {
+            buffer[offset + i] = (byte) ((Character.digit(diskKey.charAt(i * 2), 16) << 4)
+                    | Character.digit(diskKey.charAt(i * 2 + 1), 16));
+        }
+    }
+
     private static String inputStreamToString(InputStream in) throws IOException {
         return readFully(new InputStreamReader(in, HTTP.UTF_8));
     }
@@ -957,6 +1159,47 @@ public final class LruDiskCache implements Closeable {
         }
     }
 
+    /**
+     * Access ordered entries with a plain index beside them, so {@link #peek} can
+     * look an entry up without touching the LRU order.
+     */
+    private static final class EntryMap extends LinkedHashMap<String, Entry> {
+        private final HashMap<String, Entry> index = new HashMap<String, Entry>();
+
+        private EntryMap() {
+            super(0, 0.75f, true);
+        }
+
+        @Override
+        public Entry put(String key, Entry value) {
+            index.put(key, value);
+            return super.put(key, value);
+        }
+
+        @Override
+        public Entry remove(Object key) {
+            index.remove(key);
+            return super.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            index.clear();
+            super.clear();
+        }
+
+        private Entry peek(String key) {
+            return index.get(key);
+        }
+
+        /**
+         * Must be called after removing an entry through an iterator.
+         */
+        private void unindex(String key) {
+            index.remove(key);
+        }
+    }
+
     private final class Entry {
         private final String diskKey;
 
@@ -1204,6 +1447,184 @@ public final class LruDiskCache implements Closeable {
         }
     }
 
+    /////////////////////////////////////// JournalWriter /////////////////////////////////////////////
+    /**
+     * Appends records to the journal. READ records are held back and written in
+     * batches, see the journal description above.
+     */
+    private abstract class JournalWriter implements Closeable {
+        private final LinkedHashSet<Entry> pendingReads = new LinkedHashSet<Entry>();
+
+        public void writeRead(Entry entry) throws IOException {
+            // Move the entry to the end of the batch, as lruEntries.get() does.
+            pendingReads.remove(entry);
+            pendingReads.add(entry);
+            if (pendingReads.size() >= READ_BATCH_SIZE) {
+                writePendingReads();
+            }
+        }
+
+        public void writeClean(Entry entry) throws IOException {
+            writePendingReads();
+            writeRecord(OP_CLEAN, entry);
+        }
+
+        public void writeDirty(Entry entry) throws IOException {
+            writePendingReads();
+            writeRecord(OP_DIRTY, entry);
+        }
+
+        public void writeRemove(Entry entry) throws IOException {
+            writePendingReads();
+            writeRecord(OP_REMOVE, entry);
+        }
+
+        public void flush() throws IOException {
+            writePendingReads();
+            flushRecords();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writePendingReads();
+            } finally {
+                closeRecords();
+            }
+        }
+
+        private void writePendingReads() throws IOException {
+            if (pendingReads.isEmpty()) {
+                return;
+            }
+            for (Entry entry : pendingReads) {
+                writeRecord(OP_READ, entry);
+            }
+            redundantOpCount += pendingReads.size();
+            pendingReads.clear();
+        }
+
+        protected abstract void writeRecord(byte op, Entry entry) throws IOException;
+
+        protected abstract void flushRecords() throws IOException;
+
+        protected abstract void closeRecords() throws IOException;
+    }
+
+    private final class TextJournalWriter extends JournalWriter {
+        private final Writer writer;
+
+        private TextJournalWriter(File file, boolean append) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), HTTP.US_ASCII));
+            if (!append) {
+                writer.write(MAGIC);
+                writer.write("\n");
+                writer.write(VERSION_1);
+                writer.write("\n");
+                writer.write(Integer.toString(appVersion));
+                writer.write("\n");
+                writer.write(Integer.toString(valueCount));
+                writer.write("\n");
+                writer.write("\n");
+            }
+        }
+
+        @Override
+        protected void writeRecord(byte op, Entry entry) throws IOException {
+            switch (op) {
+                case OP_CLEAN:
+                    writer.write(CLEAN + ' ' + entry.diskKey + " t_" + entry.expiryTimestamp + entry.getLengths() + '\n');
+                    break;
+                case OP_DIRTY:
+                    writer.write(DIRTY + ' ' + entry.diskKey + '\n');
+                    break;
+                case OP_REMOVE:
+                    writer.write(REMOVE + ' ' + entry.diskKey + '\n');
+                    break;
+                default:
+                    writer.write(READ + ' ' + entry.diskKey + '\n');
+                    break;
+            }
+        }
+
+        @Override
+        protected void flushRecords() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        protected void closeRecords() throws IOException {
+            writer.close();
+        }
+    }
+
+    private final class BinaryJournalWriter extends JournalWriter {
+        private final OutputStream out;
+        private final byte[] record = new byte[getBinaryRecordLength()];
+        private final CRC32 crc = new CRC32();
+
+        private BinaryJournalWriter(File file, boolean append) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(file, append));
+            if (!append) {
+                byte[] header = new byte[BINARY_HEADER_LENGTH];
+                writeInt(header, 0, BINARY_MAGIC);
+                writeInt(header, 4, BINARY_VERSION);
+                writeInt(header, 8, appVersion);
+                writeInt(header, 12, valueCount);
+                out.write(header);
+            }
+        }
+
+        @Override
+        protected void writeRecord(byte op, Entry entry) throws IOException {
+            record[0] = op;
+            hashKeyToBytes(entry.diskKey, record, 1);
+            int position = 1 + HASH_KEY_LENGTH;
+            writeLong(record, position, entry.sequenceNumber);
+            writeLong(record, position + 8, entry.expiryTimestamp);
+            for (int i = 0; i < valueCount; i++) {
+                writeLong(record, position + 16 + 8 * i, entry.lengths[i]);
+            }
+            crc.reset();
+            crc.update(record, 0, record.length - 4);
+            writeInt(record, record.length - 4, (int) crc.getValue());
+            out.write(record);
+        }
+
+        @Override
+        protected void flushRecords() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        protected void closeRecords() throws IOException {
+            out.close();
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return ((long) readInt(buffer, offset) << 32) | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] buffer, int offset, long value) {
+        writeInt(buffer, offset, (int) (value >>> 32));
+        writeInt(buffer, offset + 4, (int) value);
+    }
+
     /////////////////////////////////////// DiskCacheFileNameGenerator ////////////////////////////////////////
     public interface DiskCacheFileNameGenerator {
         public String generate(String key);
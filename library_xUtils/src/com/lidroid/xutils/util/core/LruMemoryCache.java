@@ -15,11 +15,19 @@
 
 package com.lidroid.xutils.util.core;
 
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-public class LruMemoryCache<K, V> {
-    private final LinkedHashMap<K, V> map;
+public class LruMemoryCache<K, V> extends MemoryCache<K, V> {
+    private final LinkedHashMap<K, TimerWheel.Entry<K, V>> map;
 
     /**
      * Size of this cache in units. Not necessarily the number of elements.
@@ -34,10 +42,19 @@ public class LruMemoryCache<K, V> {
     private int missCount;
 
     /**
-     * key: K
-     * value: expiry time
+     * Entries with an expiry time, swept by the expiry thread every {@link #EXPIRY_TICK_MILLIS}.
      */
-    private KeyExpiryMap<K, Long> keyExpiryMap;
+    private final TimerWheel<K, V> timerWheel;
+    private boolean isExpiryScheduled = false;
+
+    private static final long EXPIRY_TICK_MILLIS = 1000;
+    private static final WeakHashMap<LruMemoryCache<?, ?>, Boolean> expiringCaches = new WeakHashMap<LruMemoryCache<?, ?>, Boolean>();
+    private static ScheduledExecutorService expiryExecutor;
+
+    /**
+     * Chooses the entries to evict, null for least recently used first.
+     */
+    private final EvictionPolicy<K> evictionPolicy;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -45,16 +62,30 @@ public class LruMemoryCache<K, V> {
      *                this is the maximum sum of the sizes of the entries in this cache.
      */
     public LruMemoryCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize        see {@link #LruMemoryCache(int)}
+     * @param evictionPolicy chooses the entries to evict, null for least recently used first.
+     */
+    public LruMemoryCache(int maxSize, EvictionPolicy<K> evictionPolicy) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
-        this.keyExpiryMap = new KeyExpiryMap<K, Long>(0, 0.75f);
+        this.map = new LinkedHashMap<K, TimerWheel.Entry<K, V>>(0, 0.75f, true);
+        this.timerWheel = new TimerWheel<K, V>(System.currentTimeMillis());
+        this.evictionPolicy = evictionPolicy;
     }
 
     public void setMaxSize(int maxSize) {
-        this.maxSize = maxSize;
+        synchronized (this) {
+            this.maxSize = maxSize;
+            if (evictionPolicy != null) {
+                evictionPolicy.setMaxSize(maxSize);
+            }
+        }
         trimToSize(maxSize);
     }
 
@@ -69,20 +100,31 @@ public class LruMemoryCache<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        // If expired, remove the entry.
-        if (!keyExpiryMap.containsKey(key)) {
-            this.remove(key);
-            return null;
-        }
-
         V mapValue;
+        TimerWheel.Entry<K, V> expired = null;
         synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
+            TimerWheel.Entry<K, V> entry = map.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                // expired before the expiry thread got to it
+                removeEntry(entry);
+                expired = entry;
+                entry = null;
+            }
+            if (entry != null) {
                 hitCount++;
-                return mapValue;
+                if (evictionPolicy != null) {
+                    evictionPolicy.recordHit(key);
+                }
+                return entry.value;
             }
             missCount++;
+            if (evictionPolicy != null) {
+                evictionPolicy.recordMiss(key);
+            }
+        }
+
+        if (expired != null) {
+            entryRemoved(false, expired.key, expired.value, null);
         }
 
         /*
@@ -99,13 +141,19 @@ public class LruMemoryCache<K, V> {
 
         synchronized (this) {
             createCount++;
-            mapValue = map.put(key, createdValue);
+            TimerWheel.Entry<K, V> entry = map.get(key);
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
+            if (entry != null) {
+                // There was a conflict, keep the cached value
+                mapValue = entry.value;
             } else {
-                size += safeSizeOf(key, createdValue);
+                mapValue = null;
+                int createdSize = safeSizeOf(key, createdValue);
+                map.put(key, new TimerWheel.Entry<K, V>(key, createdValue, createdSize, Long.MAX_VALUE));
+                size += createdSize;
+                if (evictionPolicy != null) {
+                    evictionPolicy.recordAdd(key, createdSize);
+                }
             }
         }
 
@@ -140,15 +188,31 @@ public class LruMemoryCache<K, V> {
             throw new NullPointerException("key == null || value == null");
         }
 
-        V previous;
+        V previous = null;
+        boolean scheduleExpiry = false;
         synchronized (this) {
             putCount++;
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            keyExpiryMap.put(key, expiryTimestamp);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
+            int valueSize = safeSizeOf(key, value);
+            size += valueSize;
+            TimerWheel.Entry<K, V> entry = new TimerWheel.Entry<K, V>(key, value, valueSize, expiryTimestamp);
+            TimerWheel.Entry<K, V> previousEntry = map.put(key, entry);
+            if (previousEntry != null) {
+                timerWheel.deschedule(previousEntry);
+                size -= previousEntry.size;
+                previous = previousEntry.value;
+            }
+            timerWheel.schedule(entry);
+            if (evictionPolicy != null) {
+                evictionPolicy.recordAdd(key, valueSize);
             }
+            if (expiryTimestamp != Long.MAX_VALUE && !isExpiryScheduled) {
+                isExpiryScheduled = true;
+                scheduleExpiry = true;
+            }
+        }
+
+        if (scheduleExpiry) {
+            scheduleExpiry(this);
         }
 
         if (previous != null) {
@@ -172,12 +236,14 @@ public class LruMemoryCache<K, V> {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = map.entrySet().iterator().next();
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                map.remove(key);
-                keyExpiryMap.remove(key);
-                size -= safeSizeOf(key, value);
+                key = evictionPolicy == null ? null : evictionPolicy.nextVictim();
+                TimerWheel.Entry<K, V> toEvict = key == null ? null : map.get(key);
+                if (toEvict == null) {
+                    toEvict = map.values().iterator().next();
+                    key = toEvict.key;
+                }
+                value = toEvict.value;
+                removeEntry(toEvict);
                 evictionCount++;
             }
 
@@ -195,12 +261,12 @@ public class LruMemoryCache<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
+        V previous = null;
         synchronized (this) {
-            previous = map.remove(key);
-            keyExpiryMap.remove(key);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
+            TimerWheel.Entry<K, V> entry = map.get(key);
+            if (entry != null) {
+                removeEntry(entry);
+                previous = entry.value;
             }
         }
 
@@ -211,75 +277,104 @@ public class LruMemoryCache<K, V> {
         return previous;
     }
 
-    public final boolean containsKey(K key) {
-        return map.containsKey(key);
+    public synchronized final boolean containsKey(K key) {
+        TimerWheel.Entry<K, V> entry = map.get(key);
+        return entry != null && !entry.isExpired(System.currentTimeMillis());
     }
 
     /**
-     * Called for entries that have been evicted or removed. This method is
-     * invoked when a value is evicted to make space, removed by a call to
-     * {@link #remove}, or replaced by a call to {@link #put}. The default
-     * implementation does nothing.
-     * <p/>
-     * <p>The method is called without synchronization: other threads may
-     * access the cache while this method is executing.
-     *
-     * @param evicted  true if the entry is being removed to make space, false
-     *                 if the removal was caused by a {@link #put} or {@link #remove}.
-     * @param newValue the new value for {@code key}, if it exists. If non-null,
-     *                 this removal was caused by a {@link #put}. Otherwise it was caused by
-     *                 an eviction or a {@link #remove}.
+     * Called on the expiry thread for each entry removed because its expiry time passed, after
+     * {@link #entryRemoved}. Entries found expired by {@link #get} are only reported to
+     * {@link #entryRemoved}. The default implementation does nothing.
      */
-    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    protected void entryExpired(K key, V value) {
     }
 
     /**
-     * Called after a cache miss to compute a value for the corresponding key.
-     * Returns the computed value or null if no value can be computed. The
-     * default implementation returns null.
-     * <p/>
-     * <p>The method is called without synchronization: other threads may
-     * access the cache while this method is executing.
-     * <p/>
-     * <p>If a value for {@code key} exists in the cache when this method
-     * returns, the created value will be released with {@link #entryRemoved}
-     * and discarded. This can occur when multiple threads request the same key
-     * at the same time (causing multiple values to be created), or when one
-     * thread calls {@link #put} while another is creating a value for the same
-     * key.
+     * Remove the entries whose expiry time passed.
      */
-    protected V create(K key) {
-        return null;
+    private void expireEntries() {
+        ArrayList<TimerWheel.Entry<K, V>> expired;
+        synchronized (this) {
+            if (timerWheel.isEmpty()) return;
+            expired = new ArrayList<TimerWheel.Entry<K, V>>();
+            timerWheel.advance(System.currentTimeMillis(), expired);
+            for (TimerWheel.Entry<K, V> entry : expired) {
+                removeEntry(entry);
+            }
+        }
+
+        for (TimerWheel.Entry<K, V> entry : expired) {
+            entryRemoved(false, entry.key, entry.value, null);
+            entryExpired(entry.key, entry.value);
+        }
+    }
+
+    /**
+     * Unlink the entry from the map, the timer wheel and the eviction policy. Hold the lock.
+     */
+    private void removeEntry(TimerWheel.Entry<K, V> entry) {
+        map.remove(entry.key);
+        timerWheel.deschedule(entry);
+        size -= entry.size;
+        if (evictionPolicy != null) {
+            evictionPolicy.recordRemove(entry.key);
+        }
+    }
+
+    private static void scheduleExpiry(LruMemoryCache<?, ?> cache) {
+        synchronized (expiringCaches) {
+            expiringCaches.put(cache, Boolean.TRUE);
+            if (expiryExecutor != null) return;
+            expiryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "LruMemoryCache expiry");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            expiryExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    ArrayList<LruMemoryCache<?, ?>> caches;
+                    synchronized (expiringCaches) {
+                        caches = new ArrayList<LruMemoryCache<?, ?>>(expiringCaches.keySet());
+                    }
+                    for (LruMemoryCache<?, ?> cache : caches) {
+                        try {
+                            cache.expireEntries();
+                        } catch (Throwable e) {
+                            LogUtils.e(e.getMessage(), e);
+                        }
+                    }
+                }
+            }, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     private int safeSizeOf(K key, V value) {
         int result = sizeOf(key, value);
         if (result <= 0) {
             size = 0;
-            for (Map.Entry<K, V> entry : map.entrySet()) {
-                size += sizeOf(entry.getKey(), entry.getValue());
+            for (TimerWheel.Entry<K, V> entry : map.values()) {
+                size += entry.size;
             }
         }
         return result;
     }
 
-    /**
-     * Returns the size of the entry for {@code key} and {@code value} in
-     * user-defined units.  The default implementation returns 1 so that size
-     * is the number of entries and max size is the maximum number of entries.
-     * <p/>
-     * <p>An entry's size must not change while it is in the cache.
-     */
-    protected int sizeOf(K key, V value) {
-        return 1;
-    }
-
     /**
      * Clear the cache, calling {@link #entryRemoved} on each removed entry.
      */
     public final void evictAll() {
         trimToSize(-1); // -1 will evict 0-sized elements
-        keyExpiryMap.clear();
+        if (evictionPolicy != null) {
+            synchronized (this) {
+                evictionPolicy.clear();
+            }
+        }
     }
 
     /**
@@ -341,7 +436,11 @@ public class LruMemoryCache<K, V> {
      * recently accessed to most recently accessed.
      */
     public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+        LinkedHashMap<K, V> result = new LinkedHashMap<K, V>(map.size());
+        for (TimerWheel.Entry<K, V> entry : map.values()) {
+            result.put(entry.key, entry.value);
+        }
+        return result;
     }
 
     public synchronized final String toString() {
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import java.util.Map;
+
+/**
+ * The API shared by the memory caches, so that a cache owner can choose the implementation.
+ *
+ * @see LruMemoryCache
+ * @see SegmentedLruMemoryCache
+ */
+public abstract class MemoryCache<K, V> {
+
+    public abstract void setMaxSize(int maxSize);
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. This returns null if a value is not cached
+     * and cannot be created.
+     */
+    public abstract V get(K key);
+
+    /**
+     * Caches {@code value} for {@code key}.
+     * Default expiryTimestamp: Long.MAX_VALUE.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public abstract V put(K key, V value);
+
+    /**
+     * Caches {@code value} for {@code key} until {@code expiryTimestamp}.
+     * <p/>
+     * An expired entry is never returned by {@link #get}, but it keeps its size until it is removed:
+     * {@link LruMemoryCache} removes expired entries on a background timer,
+     * {@link SegmentedLruMemoryCache} when they are read and by sweeping one segment every few puts.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public abstract V put(K key, V value, long expiryTimestamp);
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public abstract V remove(K key);
+
+    public abstract boolean containsKey(K key);
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public abstract void evictAll();
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public abstract int size();
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public abstract int maxSize();
+
+    /**
+     * Returns the number of times {@link #get} returned a value.
+     */
+    public abstract int hitCount();
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public abstract int missCount();
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public abstract int createCount();
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public abstract int putCount();
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public abstract int evictionCount();
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public abstract Map<K, V> snapshot();
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     * <p/>
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted  true if the entry is being removed to make space, false
+     *                 if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *                 this removal was caused by a {@link #put}. Otherwise it was caused by
+     *                 an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     * <p/>
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     * <p/>
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded. This can occur when multiple threads request the same key
+     * at the same time (causing multiple values to be created), or when one
+     * thread calls {@link #put} while another is creating a value for the same
+     * key.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     * <p/>
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memory cache split by key hash into segments, each an access ordered map with its own lock,
+ * so that lookups of different keys do not wait for each other.
+ * <p/>
+ * Every segment has an equal share of maxSize as its budget. A segment may grow past its budget
+ * while the whole cache is under maxSize; when the cache is full, a few segments are sampled and
+ * the least recently used entry among the heads of those over budget is evicted, which
+ * approximates a global LRU without taking every segment lock.
+ * <p/>
+ * Expired entries are removed when they are read, and one segment is swept for them every
+ * {@value #SWEEP_INTERVAL} puts.
+ */
+public class SegmentedLruMemoryCache<K, V> extends MemoryCache<K, V> {
+
+    private static final int DEFAULT_SEGMENT_COUNT = 8;
+
+    // non-empty segments looked at to choose a victim
+    private static final int VICTIM_SAMPLE_SIZE = 4;
+
+    private static final int SWEEP_INTERVAL = 64;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int maxSize;
+
+    // access clock, a larger value is more recently used
+    private final AtomicLong clock = new AtomicLong();
+
+    // where the next victim search and the next sweep start
+    private final AtomicInteger victimCursor = new AtomicInteger();
+    private final AtomicInteger sweepCursor = new AtomicInteger();
+
+    private final AtomicInteger putCount = new AtomicInteger();
+    private final AtomicInteger createCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    public SegmentedLruMemoryCache(int maxSize) {
+        this(maxSize, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * @param maxSize      for caches that do not override {@link #sizeOf}, this is
+     *                     the maximum number of entries in the cache. For all other caches,
+     *                     this is the maximum sum of the sizes of the entries in this cache.
+     * @param segmentCount rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedLruMemoryCache(int maxSize, int segmentCount) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        this.maxSize = maxSize;
+        this.segments = (Segment<K, V>[]) new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>();
+        }
+        this.segmentMask = count - 1;
+    }
+
+    @Override
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> expired = null;
+        V mapValue = null;
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    segment.map.remove(key);
+                    segment.size -= entry.size;
+                    expired = entry;
+                } else {
+                    entry.accessTime = clock.incrementAndGet();
+                    mapValue = entry.value;
+                }
+            }
+        }
+
+        if (expired != null) {
+            size.addAndGet(-expired.size);
+            entryRemoved(false, key, expired.value, null);
+            return null;
+        }
+        if (mapValue != null) {
+            hitCount.incrementAndGet();
+            return mapValue;
+        }
+        missCount.incrementAndGet();
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        createCount.incrementAndGet();
+        Entry<V> created = newEntry(key, createdValue, Long.MAX_VALUE);
+        synchronized (segment) {
+            Entry<V> existing = segment.map.get(key);
+            if (existing != null) {
+                mapValue = existing.value;
+            } else {
+                segment.map.put(key, created);
+                segment.size += created.size;
+            }
+        }
+
+        if (mapValue != null) {
+            // there was a conflict, keep the value already cached
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            size.addAndGet(created.size);
+            trimToSize(maxSize);
+            return createdValue;
+        }
+    }
+
+    @Override
+    public final V put(K key, V value) {
+        return put(key, value, Long.MAX_VALUE);
+    }
+
+    @Override
+    public final V put(K key, V value, long expiryTimestamp) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        int puts = putCount.incrementAndGet();
+        Entry<V> entry = newEntry(key, value, expiryTimestamp);
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> previous;
+        synchronized (segment) {
+            previous = segment.map.put(key, entry);
+            segment.size += entry.size;
+            if (previous != null) {
+                segment.size -= previous.size;
+            }
+        }
+
+        size.addAndGet(previous == null ? entry.size : entry.size - previous.size);
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, value);
+        }
+
+        if (puts % SWEEP_INTERVAL == 0) {
+            sweepExpired(segments[sweepCursor.getAndIncrement() & segmentMask]);
+        }
+        trimToSize(maxSize);
+        return previous == null ? null : previous.value;
+    }
+
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> previous;
+        synchronized (segment) {
+            previous = segment.map.remove(key);
+            if (previous != null) {
+                segment.size -= previous.size;
+            }
+        }
+
+        if (previous != null) {
+            size.addAndGet(-previous.size);
+            entryRemoved(false, key, previous.value, null);
+            return previous.value;
+        }
+        return null;
+    }
+
+    @Override
+    public final boolean containsKey(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            return entry != null && !entry.isExpired(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public final void evictAll() {
+        for (Segment<K, V> segment : segments) {
+            ArrayList<Map.Entry<K, Entry<V>>> removed;
+            synchronized (segment) {
+                removed = new ArrayList<Map.Entry<K, Entry<V>>>(segment.map.entrySet());
+                segment.map.clear();
+                segment.size = 0;
+            }
+            for (Map.Entry<K, Entry<V>> entry : removed) {
+                size.addAndGet(-entry.getValue().size);
+                evictionCount.incrementAndGet();
+                entryRemoved(true, entry.getKey(), entry.getValue().value, null);
+            }
+        }
+    }
+
+    /**
+     * @param maxSize the maximum size of the cache before returning.
+     */
+    private void trimToSize(int maxSize) {
+        int budget = Math.max(0, maxSize / segments.length);
+        while (size.get() > maxSize) {
+            Segment<K, V> victim = findVictimSegment(budget);
+            if (victim == null) {
+                break;
+            }
+
+            K key;
+            Entry<V> value;
+            synchronized (victim) {
+                Iterator<Map.Entry<K, Entry<V>>> iterator = victim.map.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    continue;
+                }
+                Map.Entry<K, Entry<V>> toEvict = iterator.next();
+                key = toEvict.getKey();
+                value = toEvict.getValue();
+                iterator.remove();
+                victim.size -= value.size;
+            }
+
+            size.addAndGet(-value.size);
+            evictionCount.incrementAndGet();
+            entryRemoved(true, key, value.value, null);
+        }
+    }
+
+    /**
+     * Sample up to {@value #VICTIM_SAMPLE_SIZE} non-empty segments, starting after where the last
+     * search started.
+     *
+     * @return the sampled segment over budget whose least recently used entry is the oldest,
+     *         or any sampled segment if none is over budget; null if the cache is empty.
+     */
+    private Segment<K, V> findVictimSegment(int budget) {
+        Segment<K, V> victim = null;
+        long victimAccessTime = Long.MAX_VALUE;
+        boolean victimOverBudget = false;
+        int start = victimCursor.getAndIncrement();
+        int sampled = 0;
+        for (int i = 0; i < segments.length && sampled < VICTIM_SAMPLE_SIZE; i++) {
+            Segment<K, V> segment = segments[(start + i) & segmentMask];
+            synchronized (segment) {
+                if (segment.map.isEmpty()) continue;
+                sampled++;
+                boolean overBudget = segment.size > budget;
+                if (victimOverBudget && !overBudget) continue;
+                long accessTime = segment.map.values().iterator().next().accessTime;
+                if ((overBudget && !victimOverBudget) || accessTime < victimAccessTime) {
+                    victim = segment;
+                    victimAccessTime = accessTime;
+                    victimOverBudget = overBudget;
+                }
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Remove the expired entries of one segment.
+     */
+    private void sweepExpired(Segment<K, V> segment) {
+        ArrayList<Map.Entry<K, Entry<V>>> expired = null;
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            // iterating does not change the access order
+            Iterator<Map.Entry<K, Entry<V>>> iterator = segment.map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> entry = iterator.next();
+                if (entry.getValue().isExpired(now)) {
+                    if (expired == null) {
+                        expired = new ArrayList<Map.Entry<K, Entry<V>>>();
+                    }
+                    expired.add(entry);
+                    iterator.remove();
+                    segment.size -= entry.getValue().size;
+                }
+            }
+        }
+
+        if (expired == null) return;
+        for (Map.Entry<K, Entry<V>> entry : expired) {
+            size.addAndGet(-entry.getValue().size);
+            entryRemoved(false, entry.getKey(), entry.getValue().value, null);
+        }
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    private Entry<V> newEntry(K key, V value, long expiryTimestamp) {
+        return new Entry<V>(value, Math.max(0, sizeOf(key, value)), expiryTimestamp, clock.incrementAndGet());
+    }
+
+    @Override
+    public final int size() {
+        return size.get();
+    }
+
+    @Override
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public final int hitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public final int missCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public final int createCount() {
+        return createCount.get();
+    }
+
+    @Override
+    public final int putCount() {
+        return putCount.get();
+    }
+
+    @Override
+    public final int evictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public final Map<K, V> snapshot() {
+        ArrayList<SnapshotEntry<K, V>> entries = new ArrayList<SnapshotEntry<K, V>>();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<K, Entry<V>> entry : segment.map.entrySet()) {
+                    Entry<V> value = entry.getValue();
+                    entries.add(new SnapshotEntry<K, V>(entry.getKey(), value.value, value.accessTime));
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<SnapshotEntry<K, V>>() {
+            @Override
+            public int compare(SnapshotEntry<K, V> lhs, SnapshotEntry<K, V> rhs) {
+                long l = lhs.accessTime;
+                long r = rhs.accessTime;
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        LinkedHashMap<K, V> result = new LinkedHashMap<K, V>(entries.size());
+        for (SnapshotEntry<K, V> entry : entries) {
+            result.put(entry.key, entry.value);
+        }
+        return result;
+    }
+
+    @Override
+    public final String toString() {
+        int hits = hitCount.get();
+        int accesses = hits + missCount.get();
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("SegmentedLruMemoryCache[maxSize=%d,segments=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, segments.length, hits, accesses - hits, hitPercent);
+    }
+
+    private static class Segment<K, V> {
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(0, 0.75f, true);
+        private int size;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final int size;
+        private final long expiryTimestamp;
+        private volatile long accessTime;
+
+        private Entry(V value, int size, long expiryTimestamp, long accessTime) {
+            this.value = value;
+            this.size = size;
+            this.expiryTimestamp = expiryTimestamp;
+            this.accessTime = accessTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiryTimestamp;
+        }
+    }
+
+    // a copy of the access time, the entry may be touched while sorting
+    private static class SnapshotEntry<K, V> {
+        private final K key;
+        private final V value;
+        private final long accessTime;
+
+        private SnapshotEntry(K key, V value, long accessTime) {
+            this.key = key;
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of the expiring entries of {@link LruMemoryCache}.
+ * <p/>
+ * Each level has 64 buckets; a bucket of level 0 spans about a second, of level 1 about a minute,
+ * of level 2 about an hour and of level 3 about three days. Advancing the wheel only visits the
+ * buckets whose time has passed, entries which are not due yet move down to a finer level.
+ * Entries expiring further away than level 3 reaches wait in an overflow list.
+ * <p/>
+ * Not thread safe, the cache calls it while holding its lock.
+ */
+class TimerWheel<K, V> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    // milliseconds per bucket of each level: 2^10, 2^16, 2^22, 2^28
+    private static final int[] SHIFTS = {10, 16, 22, 28};
+
+    private final Entry<K, V>[][] wheels;
+    private final Entry<K, V> overflow;
+    private long currentTime;
+    private int count;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long currentTime) {
+        this.currentTime = currentTime;
+        wheels = (Entry<K, V>[][]) new Entry[SHIFTS.length][SLOTS];
+        for (Entry<K, V>[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                wheel[i] = newSentinel();
+            }
+        }
+        overflow = newSentinel();
+    }
+
+    /**
+     * A cache entry, linked into a bucket while its expiry time is finite.
+     */
+    static class Entry<K, V> {
+        final K key;
+        final V value;
+        final int size;
+        final long expiryTimestamp;
+
+        private Entry<K, V> prev;
+        private Entry<K, V> next;
+
+        Entry(K key, V value, int size, long expiryTimestamp) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+            this.expiryTimestamp = expiryTimestamp;
+        }
+
+        boolean isExpired(long now) {
+            return expiryTimestamp != Long.MAX_VALUE && expiryTimestamp <= now;
+        }
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    void schedule(Entry<K, V> entry) {
+        if (entry.expiryTimestamp == Long.MAX_VALUE) return;
+        link(findBucket(entry.expiryTimestamp), entry);
+        count++;
+    }
+
+    void deschedule(Entry<K, V> entry) {
+        if (entry.next == null) return;
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        count--;
+    }
+
+    /**
+     * Move the wheel to the given time.
+     *
+     * @param now
+     * @param expired receives the entries which expired, they are no longer scheduled.
+     */
+    void advance(long now, List<Entry<K, V>> expired) {
+        if (now <= currentTime) return;
+        long previousTime = currentTime;
+        currentTime = now;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previousTime >>> SHIFTS[i];
+            long currentTicks = now >>> SHIFTS[i];
+            if (currentTicks <= previousTicks) return;
+            int buckets = (int) Math.min(SLOTS, currentTicks - previousTicks);
+            for (int j = 1; j <= buckets; j++) {
+                expireBucket(wheels[i][(int) ((previousTicks + j) & SLOT_MASK)], now, expired);
+            }
+        }
+        // the coarsest level turned, entries of the overflow may fit into the wheel now
+        expireBucket(overflow, now, expired);
+    }
+
+    private void expireBucket(Entry<K, V> sentinel, long now, List<Entry<K, V>> expired) {
+        Entry<K, V> entry = sentinel.next;
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        while (entry != sentinel) {
+            Entry<K, V> next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            count--;
+            if (entry.expiryTimestamp <= now) {
+                expired.add(entry);
+            } else {
+                schedule(entry);
+            }
+            entry = next;
+        }
+    }
+
+    private Entry<K, V> findBucket(long time) {
+        long duration = time - currentTime;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            if (duration < (1L << (SHIFTS[i] + SLOT_BITS))) {
+                // never the bucket of the current tick, it has been visited already
+                long ticks = Math.max(time >>> SHIFTS[i], (currentTime >>> SHIFTS[i]) + 1);
+                return wheels[i][(int) (ticks & SLOT_MASK)];
+            }
+        }
+        return overflow;
+    }
+
+    private static <K, V> void link(Entry<K, V> sentinel, Entry<K, V> entry) {
+        entry.prev = sentinel.prev;
+        entry.next = sentinel;
+        sentinel.prev.next = entry;
+        sentinel.prev = entry;
+    }
+
+    private static <K, V> Entry<K, V> newSentinel() {
+        Entry<K, V> sentinel = new Entry<K, V>(null, null, 0, 0);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        return sentinel;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import java.util.HashMap;
+
+/**
+ * W-TinyLFU: new entries enter a small LRU window, entries leaving the window are only admitted
+ * into the main segmented LRU if they were used more often than the entry they would evict.
+ * Frequencies are estimated by a count-min sketch, which also remembers keys no longer cached.
+ * <p/>
+ * While the main space has room, entries leaving the window move straight into probation. Once it
+ * is full they wait as candidates until the cache has to evict, then each one is compared with the
+ * probation victim and the less frequent of the two goes. Since the cache evicts right after every
+ * add, the candidates never add up to more than the entries pushed out of the window by one add.
+ * <p/>
+ * A one-off scan, like a fling through a large album, passes through the window and the
+ * probation segment without pushing the frequently used entries out of the protected segment.
+ */
+public class TinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+    private static final int DEFAULT_WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final int windowPercent;
+    private int windowMaxSize;
+    private int mainMaxSize;
+    private int protectedMaxSize;
+
+    private final HashMap<K, Node<K>> nodes = new HashMap<K, Node<K>>();
+    private final NodeList<K> window = new NodeList<K>();
+    // left the window, waiting to be compared with the probation victim
+    private final NodeList<K> candidates = new NodeList<K>();
+    private final NodeList<K> probation = new NodeList<K>();
+    private final NodeList<K> protect = new NodeList<K>();
+
+    private final FrequencySketch sketch;
+
+    /**
+     * @param maxSize         the maximum size of the cache.
+     * @param expectedEntries about how many entries the cache holds, sizes the frequency sketch.
+     */
+    public TinyLfuEvictionPolicy(int maxSize, int expectedEntries) {
+        this(maxSize, expectedEntries, DEFAULT_WINDOW_PERCENT);
+    }
+
+    /**
+     * @param windowPercent share of maxSize for the admission window, between 1 and 99.
+     */
+    public TinyLfuEvictionPolicy(int maxSize, int expectedEntries, int windowPercent) {
+        if (windowPercent < 1 || windowPercent > 99) {
+            throw new IllegalArgumentException("windowPercent must be between 1 and 99");
+        }
+        this.windowPercent = windowPercent;
+        this.sketch = new FrequencySketch(Math.max(16, expectedEntries));
+        setMaxSize(maxSize);
+    }
+
+    @Override
+    public void setMaxSize(int maxSize) {
+        windowMaxSize = (int) ((long) maxSize * windowPercent / 100);
+        mainMaxSize = maxSize - windowMaxSize;
+        protectedMaxSize = (int) ((long) mainMaxSize * PROTECTED_PERCENT / 100);
+    }
+
+    @Override
+    public void recordHit(K key) {
+        sketch.increment(key.hashCode());
+        Node<K> node = nodes.get(key);
+        if (node == null) return;
+        if (node.list == probation) {
+            // a second hit in the main space, promote it
+            probation.remove(node);
+            protect.addToTail(node);
+            demoteProtected();
+        } else if (node.list != candidates) {
+            // a candidate is not in the main space yet, the hit only counts in the sketch
+            node.list.moveToTail(node);
+        }
+    }
+
+    @Override
+    public void recordMiss(K key) {
+        sketch.increment(key.hashCode());
+    }
+
+    @Override
+    public void recordAdd(K key, int size) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            // replaced value, keep its place
+            node.list.size += size - node.size;
+            node.size = size;
+            node.list.moveToTail(node);
+        } else {
+            sketch.increment(key.hashCode());
+            node = new Node<K>(key, size);
+            nodes.put(key, node);
+            window.addToTail(node);
+        }
+        demoteProtected();
+
+        // the newest entry always stays in the window, even if it is larger than the window
+        while (window.size > windowMaxSize && window.head != window.tail) {
+            Node<K> eldest = window.head;
+            window.remove(eldest);
+            candidates.addToTail(eldest);
+        }
+        admitCandidates();
+    }
+
+    @Override
+    public void recordRemove(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node != null) {
+            node.list.remove(node);
+            admitCandidates();
+        }
+    }
+
+    @Override
+    public K nextVictim() {
+        Node<K> candidate = candidates.head;
+        Node<K> victim = probation.head != null ? probation.head : protect.head;
+        if (candidate == null) {
+            if (victim != null) return victim.key;
+            return window.head == null ? null : window.head.key;
+        }
+        if (victim == null) {
+            // the candidate is larger than the whole main space
+            return candidate.key;
+        }
+        if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+            // admit the candidate, the victim goes
+            candidates.remove(candidate);
+            probation.addToTail(candidate);
+            return victim.key;
+        }
+        return candidate.key;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        window.clear();
+        candidates.clear();
+        probation.clear();
+        protect.clear();
+    }
+
+    /**
+     * Move candidates into probation while the main space has room for them, no entry has to be
+     * evicted for those.
+     */
+    private void admitCandidates() {
+        while (candidates.head != null && probation.size + protect.size + candidates.head.size <= mainMaxSize) {
+            Node<K> candidate = candidates.head;
+            candidates.remove(candidate);
+            probation.addToTail(candidate);
+        }
+    }
+
+    private void demoteProtected() {
+        while (protect.size > protectedMaxSize && protect.head != protect.tail) {
+            Node<K> eldest = protect.head;
+            protect.remove(eldest);
+            probation.addToTail(eldest);
+        }
+    }
+
+    private static class Node<K> {
+        private final K key;
+        private int size;
+        private NodeList<K> list;
+        private Node<K> prev;
+        private Node<K> next;
+
+        private Node(K key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, head is the least recently used.
+     */
+    private static class NodeList<K> {
+        private Node<K> head;
+        private Node<K> tail;
+        private int size;
+
+        private void addToTail(Node<K> node) {
+            node.list = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size += node.size;
+        }
+
+        private void remove(Node<K> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.list = null;
+            size -= node.size;
+        }
+
+        private void moveToTail(Node<K> node) {
+            if (node != tail) {
+                remove(node);
+                addToTail(node);
+            }
+        }
+
+        private void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 rows of 4-bit counters, each row four times wider than the expected
+     * number of entries so that keys passing through once rarely share all their counters with a
+     * frequent one. All counters are halved once the number of increments reaches ten times the
+     * expected number of entries, so that old popularity fades.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0x0d2a3a15, 0x9e3779b9, 0x7f4a7c15};
+
+        private final byte[] table;
+        private final int widthMask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int expectedEntries) {
+            int entries = 1;
+            while (entries < expectedEntries) {
+                entries <<= 1;
+            }
+            int width = entries * 4;
+            // two 4-bit counters per byte
+            table = new byte[DEPTH * width / 2];
+            widthMask = width - 1;
+            sampleSize = 10 * entries;
+        }
+
+        private int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, get(indexOf(hash, row)));
+            }
+            return min;
+        }
+
+        private void increment(int hash) {
+            int min = frequency(hash);
+            if (min == MAX_COUNT) return;
+            // conservative update, only the smallest counters grow
+            for (int row = 0; row < DEPTH; row++) {
+                int index = indexOf(hash, row);
+                if (get(index) == min) {
+                    set(index, min + 1);
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                int high = (table[i] >>> 4) & 0x0F;
+                int low = table[i] & 0x0F;
+                table[i] = (byte) (((high >>> 1) << 4) | (low >>> 1));
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x85ebca6b;
+            h ^= h >>> 16;
+            return row * (widthMask + 1) + (h & widthMask);
+        }
+
+        private int get(int index) {
+            int b = table[index >>> 1];
+            return (index & 1) == 0 ? b & 0x0F : (b >>> 4) & 0x0F;
+        }
+
+        private void set(int index, int value) {
+            int i = index >>> 1;
+            if ((index & 1) == 0) {
+                table[i] = (byte) ((table[i] & 0xF0) | value);
+            } else {
+                table[i] = (byte) ((table[i] & 0x0F) | (value << 4));
+            }
+        }
+    }
+}
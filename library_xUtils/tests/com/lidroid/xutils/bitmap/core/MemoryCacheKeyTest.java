@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.bitmap.core;
+
+import com.lidroid.xutils.util.core.LruMemoryCache;
+import com.lidroid.xutils.util.core.MemoryCache;
+import com.lidroid.xutils.util.core.SegmentedLruMemoryCache;
+import com.lidroid.xutils.util.core.TinyLfuEvictionPolicy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Checks that {@link BitmapCache.MemoryCacheKey} can be reused as the lookup key, and that a
+ * memory cache lookup with it allocates nothing on a hit or a miss.
+ * <p/>
+ * The rest of BitmapCache needs Android, the key is reached by reflection and the caches hold
+ * strings instead of bitmaps. Allocations are counted with the HotSpot ThreadMXBean:
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/bitmap/core/MemoryCacheKeyTest.java
+ * java -cp out com.lidroid.xutils.bitmap.core.MemoryCacheKeyTest
+ * </pre>
+ */
+public class MemoryCacheKeyTest {
+
+    private static final int KEY_COUNT = 256;
+    private static final int LOOKUPS = 1 << 20;
+
+    private static Constructor<BitmapCache.MemoryCacheKey> sConstructor;
+    private static Method sSet;
+
+    public static void main(String[] args) throws Exception {
+        sConstructor = BitmapCache.MemoryCacheKey.class.getDeclaredConstructor(String.class, long.class);
+        sConstructor.setAccessible(true);
+        sSet = BitmapCache.MemoryCacheKey.class.getDeclaredMethod("set", String.class, long.class);
+        sSet.setAccessible(true);
+
+        testReusedKey();
+        testLookupAllocation("LruMemoryCache",
+                new LruMemoryCache<BitmapCache.MemoryCacheKey, String>(KEY_COUNT * 2));
+        testLookupAllocation("LruMemoryCache with W-TinyLFU",
+                new LruMemoryCache<BitmapCache.MemoryCacheKey, String>(KEY_COUNT * 2,
+                        new TinyLfuEvictionPolicy<BitmapCache.MemoryCacheKey>(KEY_COUNT * 2, KEY_COUNT * 2)));
+        testLookupAllocation("SegmentedLruMemoryCache",
+                new SegmentedLruMemoryCache<BitmapCache.MemoryCacheKey, String>(KEY_COUNT * 2));
+        System.out.println("MemoryCacheKeyTest passed");
+    }
+
+    private static void testReusedKey() throws Exception {
+        BitmapCache.MemoryCacheKey stored = newKey("file:///sdcard/DCIM/a.jpg", 42);
+        BitmapCache.MemoryCacheKey lookup = newKey(null, 0);
+        check(!lookup.equals(stored), "cleared key matches");
+
+        sSet.invoke(lookup, "file:///sdcard/DCIM/a.jpg", 42L);
+        check(lookup.equals(stored) && stored.equals(lookup), "reused key does not match");
+        check(lookup.hashCode() == stored.hashCode(), "reused key hash");
+
+        sSet.invoke(lookup, "file:///sdcard/DCIM/a.jpg", 43L);
+        check(!lookup.equals(stored), "fingerprint is part of the key");
+
+        sSet.invoke(lookup, "file:///sdcard/DCIM/b.jpg", 42L);
+        check(!lookup.equals(stored), "uri is part of the key");
+
+        sSet.invoke(lookup, null, 0L);
+        check(lookup.getUri() == null && lookup.equals(newKey(null, 0)), "cleared key keeps no uri");
+    }
+
+    private static void testLookupAllocation(String name, MemoryCache<BitmapCache.MemoryCacheKey, String> cache)
+            throws Exception {
+        BitmapCache.MemoryCacheKey[] lookups = new BitmapCache.MemoryCacheKey[KEY_COUNT * 2];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String uri = "file:///sdcard/DCIM/" + i + ".jpg";
+            cache.put(newKey(uri, i), uri);
+            // equal but not the same instance, like the thread's lookup key
+            lookups[i] = newKey(uri, i);
+            lookups[KEY_COUNT + i] = newKey(uri, i + 1);
+        }
+
+        // warm up so that the measured loop runs compiled
+        lookup(cache, lookups, LOOKUPS);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        int hits = lookup(cache, lookups, LOOKUPS);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.println(name + ": " + LOOKUPS + " lookups, " + hits + " hits, " + allocated + " bytes allocated");
+        check(hits == LOOKUPS / 2, name + " hits " + hits);
+        // leaves room for the counter's own bookkeeping, a key per lookup would be over 30MB
+        check(allocated < LOOKUPS / 10, name + " allocated " + allocated + " bytes");
+    }
+
+    private static int lookup(MemoryCache<BitmapCache.MemoryCacheKey, String> cache,
+                              BitmapCache.MemoryCacheKey[] lookups, int count) {
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            if (cache.get(lookups[i % lookups.length]) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static BitmapCache.MemoryCacheKey newKey(String uri, long fingerprint) throws Exception {
+        return sConstructor.newInstance(uri, fingerprint);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import com.lidroid.xutils.util.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the disk cache sequence of BitmapCache.downloadBitmap, get, edit, download, commit, get,
+ * from several threads under {@link KeyLocks} against a real {@link LruDiskCache}, with a slow
+ * stand-in download.
+ * <p/>
+ * Every uri must be downloaded exactly once however many threads ask for it, and with the
+ * locks striped by key downloads of different uris must overlap, which a single lock prevents.
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/util/core/KeyLocksTest.java
+ * java -cp out com.lidroid.xutils.util.core.KeyLocksTest
+ * </pre>
+ */
+public class KeyLocksTest {
+
+    private static final int THREADS = 8;
+    private static final int URIS = 16;
+    private static final long DOWNLOAD_MILLIS = 20;
+
+    public static void main(String[] args) throws Exception {
+        LogUtils.allowD = false;
+        LogUtils.allowE = false;
+        LogUtils.allowW = false;
+
+        testSameKeySameLock();
+        Result striped = run(new KeyLocks(32));
+        Result global = run(new KeyLocks(1));
+        System.out.println("32 stripes: " + striped + ", 1 lock: " + global);
+        check(striped.maxConcurrentDownloads > 1, "striped downloads never overlapped");
+        check(global.maxConcurrentDownloads == 1, "downloads overlapped under one lock");
+        check(striped.millis < global.millis, "striped locks are not faster than one lock");
+        System.out.println("KeyLocksTest passed");
+    }
+
+    private static void testSameKeySameLock() {
+        KeyLocks locks = new KeyLocks(32);
+        String uri = "http://example.com/image/1.jpg";
+        check(locks.get(uri) == locks.get(new String(uri)), "equal keys get the same lock");
+        check(locks.get("Aa") == locks.get("BB"), "keys with the same hash share a lock");
+        try {
+            new KeyLocks(0);
+            throw new AssertionError("no stripes accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static Result run(final KeyLocks locks) throws Exception {
+        final File dir = createTempDir();
+        final LruDiskCache cache = LruDiskCache.open(dir, 1, 1, 10 * 1024 * 1024);
+        final AtomicIntegerArray downloads = new AtomicIntegerArray(URIS);
+        final AtomicInteger activeDownloads = new AtomicInteger();
+        final AtomicInteger maxConcurrentDownloads = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            final List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < URIS; i++) {
+                order.add(i);
+            }
+            // every thread asks for every uri, in its own order
+            Collections.rotate(order, t * URIS / THREADS);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i : order) {
+                            String value = load(cache, locks, i, downloads, activeDownloads, maxConcurrentDownloads);
+                            check(value(i).equals(value), "uri " + i + " read " + value);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long millis = (System.nanoTime() - startTime) / 1000000;
+        cache.delete();
+        dir.delete();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (int i = 0; i < URIS; i++) {
+            check(downloads.get(i) == 1, "uri " + i + " downloaded " + downloads.get(i) + " times");
+        }
+        return new Result(millis, maxConcurrentDownloads.get());
+    }
+
+    /**
+     * The same sequence as BitmapCache.downloadBitmap, the decode happens outside the lock.
+     */
+    private static String load(LruDiskCache cache, KeyLocks locks, int i, AtomicIntegerArray downloads,
+                               AtomicInteger activeDownloads, AtomicInteger maxConcurrentDownloads)
+            throws IOException, InterruptedException {
+        String uri = uri(i);
+        LruDiskCache.Snapshot snapshot;
+        synchronized (locks.get(uri)) {
+            snapshot = cache.get(uri);
+            if (snapshot == null) {
+                LruDiskCache.Editor editor = cache.edit(uri);
+                check(editor != null, "uri " + i + " is edited by another request");
+                downloads.incrementAndGet(i);
+                int active = activeDownloads.incrementAndGet();
+                int max;
+                while (active > (max = maxConcurrentDownloads.get())
+                        && !maxConcurrentDownloads.compareAndSet(max, active)) {
+                }
+                Thread.sleep(DOWNLOAD_MILLIS);
+                OutputStream out = editor.newOutputStream(0);
+                out.write(value(i).getBytes("UTF-8"));
+                out.close();
+                activeDownloads.decrementAndGet();
+                editor.commit();
+                snapshot = cache.get(uri);
+            }
+        }
+        try {
+            return snapshot.getString(0);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static String uri(int i) {
+        return "http://example.com/image/" + i + ".jpg";
+    }
+
+    private static String value(int i) {
+        return "image " + i;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("KeyLocksTest", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        return dir;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static class Result {
+        private final long millis;
+        private final int maxConcurrentDownloads;
+
+        private Result(long millis, int maxConcurrentDownloads) {
+            this.millis = millis;
+            this.maxConcurrentDownloads = maxConcurrentDownloads;
+        }
+
+        @Override
+        public String toString() {
+            return millis + "ms, up to " + maxConcurrentDownloads + " concurrent downloads";
+        }
+    }
+}
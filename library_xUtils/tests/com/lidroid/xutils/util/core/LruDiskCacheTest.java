@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import com.lidroid.xutils.util.LogUtils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Replays the {@link LruDiskCache} journal: reopening, a torn or corrupt tail, the text form for
+ * keys that can't be packed, {@link LruDiskCache#contains} keeping the LRU order, and the time
+ * to open a cache as the number of entries grows.
+ * <p/>
+ * Runs on a plain JVM. android.jar is only needed to compile LogUtils and IOUtils, logging is
+ * turned off:
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/util/core/LruDiskCacheTest.java
+ * java -cp out com.lidroid.xutils.util.core.LruDiskCacheTest
+ * </pre>
+ */
+public class LruDiskCacheTest {
+
+    private static final int APP_VERSION = 1;
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    // 1 byte op, 16 byte key, sequence, expiry, one length, crc
+    private static final int RECORD_LENGTH = 1 + 16 + 8 + 8 + 8 + 4;
+    private static final int HEADER_LENGTH = 16;
+
+    public static void main(String[] args) throws IOException {
+        LogUtils.allowD = false;
+        LogUtils.allowE = false;
+        LogUtils.allowW = false;
+
+        File root = createTempDir();
+        try {
+            testReopenReplaysJournal(new File(root, "reopen"));
+            testTornTailIsTruncated(new File(root, "torn"));
+            testCorruptRecordEndsJournal(new File(root, "corrupt"));
+            testTextJournal(new File(root, "text"));
+            testContainsKeepsLruOrder(new File(root, "contains"));
+            testOpenTime(new File(root, "open"));
+        } finally {
+            deleteRecursively(root);
+        }
+        System.out.println("LruDiskCacheTest passed");
+    }
+
+    private static void testReopenReplaysJournal(File dir) throws IOException {
+        LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        for (int i = 0; i < 100; i++) {
+            put(cache, "key" + i, "value" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            check(("value" + i).equals(get(cache, "key" + i)), "read key" + i);
+        }
+        for (int i = 10; i < 20; i++) {
+            check(cache.remove("key" + i), "remove key" + i);
+        }
+        long size = cache.size();
+        cache.close();
+        check(readMagic(dir) == LruDiskCache.BINARY_MAGIC, "hash keys are journaled in the binary form");
+        check((journalLength(dir) - HEADER_LENGTH) % RECORD_LENGTH == 0, "journal ends on a record");
+
+        cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        check(cache.size() == size, "size after reopen " + cache.size() + ", was " + size);
+        for (int i = 0; i < 100; i++) {
+            boolean removed = i >= 10 && i < 20;
+            check(cache.contains("key" + i) != removed, "key" + i + " after reopen");
+            if (!removed) {
+                check(("value" + i).equals(get(cache, "key" + i)), "value of key" + i + " after reopen");
+            }
+        }
+        cache.close();
+    }
+
+    private static void testTornTailIsTruncated(File dir) throws IOException {
+        LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        for (int i = 0; i < 20; i++) {
+            put(cache, "key" + i, "value" + i);
+        }
+        cache.close();
+        long length = journalLength(dir);
+
+        // a record cut short by a crash
+        RandomAccessFile journal = new RandomAccessFile(new File(dir, LruDiskCache.JOURNAL_FILE), "rw");
+        try {
+            journal.seek(length);
+            journal.write(new byte[RECORD_LENGTH / 2]);
+        } finally {
+            journal.close();
+        }
+
+        cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        check(journalLength(dir) == length, "torn record dropped, journal length " + journalLength(dir));
+        for (int i = 0; i < 20; i++) {
+            check(("value" + i).equals(get(cache, "key" + i)), "key" + i + " before the torn record");
+        }
+        // new records have to follow the last valid one to be replayed
+        put(cache, "after", "after");
+        cache.close();
+
+        cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        check("after".equals(get(cache, "after")), "entry written after the truncation");
+        cache.close();
+    }
+
+    private static void testCorruptRecordEndsJournal(File dir) throws IOException {
+        LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        for (int i = 0; i < 20; i++) {
+            put(cache, "key" + i, "value" + i);
+        }
+        put(cache, "last", "last");
+        cache.close();
+
+        // flip a byte in the CLEAN record of the last entry
+        long length = journalLength(dir);
+        RandomAccessFile journal = new RandomAccessFile(new File(dir, LruDiskCache.JOURNAL_FILE), "rw");
+        try {
+            journal.seek(length - RECORD_LENGTH + 20);
+            int b = journal.read();
+            journal.seek(length - RECORD_LENGTH + 20);
+            journal.write(b ^ 0xFF);
+        } finally {
+            journal.close();
+        }
+
+        cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        check(!cache.contains("last"), "entry with a corrupt CLEAN record is dropped");
+        for (int i = 0; i < 20; i++) {
+            check(("value" + i).equals(get(cache, "key" + i)), "key" + i + " before the corrupt record");
+        }
+        check(journalLength(dir) == length - RECORD_LENGTH, "journal truncated at the corrupt record");
+        cache.close();
+    }
+
+    private static void testTextJournal(File dir) throws IOException {
+        LruDiskCache.DiskCacheFileNameGenerator plainNames = new LruDiskCache.DiskCacheFileNameGenerator() {
+            @Override
+            public String generate(String key) {
+                return key;
+            }
+        };
+        LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        cache.setDiskCacheFileNameGenerator(plainNames);
+        for (int i = 0; i < 20; i++) {
+            put(cache, "plain-key-" + i, "value" + i);
+        }
+        cache.close();
+        check(readMagic(dir) != LruDiskCache.BINARY_MAGIC, "keys that can't be packed fall back to text");
+
+        cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+        cache.setDiskCacheFileNameGenerator(plainNames);
+        for (int i = 0; i < 20; i++) {
+            check(("value" + i).equals(get(cache, "plain-key-" + i)), "plain-key-" + i + " after reopen");
+        }
+        cache.close();
+    }
+
+    private static void testContainsKeepsLruOrder(File dir) throws IOException {
+        // room for three 10 byte entries
+        LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, 30);
+        put(cache, "a", "0123456789");
+        put(cache, "b", "0123456789");
+        put(cache, "c", "0123456789");
+        check(cache.contains("a"), "contains a");
+        put(cache, "d", "0123456789");
+        cache.flush();
+        check(!cache.contains("a"), "contains must not save a from eviction");
+        check(cache.contains("b") && cache.contains("c") && cache.contains("d"), "b, c and d kept");
+
+        check(get(cache, "b") != null, "get b");
+        put(cache, "e", "0123456789");
+        cache.flush();
+        check(cache.contains("b"), "get moves b to the tail");
+        check(!cache.contains("c"), "c evicted instead of b");
+        cache.close();
+    }
+
+    /**
+     * Prints how long opening takes, the binary journal is read in fixed-width batches.
+     */
+    private static void testOpenTime(File dir) throws IOException {
+        int written = 0;
+        for (int entries = 1000; entries <= 8000; entries *= 2) {
+            LruDiskCache cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+            for (; written < entries; written++) {
+                put(cache, "key" + written, "v");
+            }
+            cache.close();
+
+            long start = System.nanoTime();
+            cache = LruDiskCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+            long micros = (System.nanoTime() - start) / 1000;
+            check(cache.contains("key" + (entries - 1)), "last entry of " + entries);
+            cache.close();
+            System.out.println("open " + entries + " entries, journal " + journalLength(dir) + " bytes: "
+                    + micros + "us");
+        }
+    }
+
+    private static void put(LruDiskCache cache, String key, String value) throws IOException {
+        LruDiskCache.Editor editor = cache.edit(key);
+        check(editor != null, "edit " + key);
+        editor.set(0, value);
+        editor.commit();
+    }
+
+    private static String get(LruDiskCache cache, String key) throws IOException {
+        LruDiskCache.Snapshot snapshot = cache.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.getString(0);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static int readMagic(File dir) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(new File(dir, LruDiskCache.JOURNAL_FILE)));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long journalLength(File dir) {
+        return new File(dir, LruDiskCache.JOURNAL_FILE).length();
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("LruDiskCacheTest", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares {@link SegmentedLruMemoryCache} with {@link LruMemoryCache}: the size accounting under
+ * concurrent puts, gets and removes, how close the sampled eviction comes to a global LRU, the
+ * sweep of expired entries nobody reads, and the throughput of both under several threads.
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/util/core/SegmentedLruMemoryCacheTest.java
+ * java -cp out com.lidroid.xutils.util.core.SegmentedLruMemoryCacheTest
+ * </pre>
+ */
+public class SegmentedLruMemoryCacheTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 2000;
+    private static final int MAX_SIZE = 500;
+
+    public static void main(String[] args) throws Exception {
+        LogUtils.allowD = false;
+        LogUtils.allowE = false;
+        LogUtils.allowW = false;
+
+        CountingSegmentedCache segmented = new CountingSegmentedCache(MAX_SIZE);
+        testConcurrentAccounting("SegmentedLruMemoryCache", segmented, segmented.released);
+        CountingLruCache lru = new CountingLruCache(MAX_SIZE);
+        testConcurrentAccounting("LruMemoryCache", lru, lru.released);
+
+        testApproximateLru();
+        testSweepExpired();
+        testThroughput();
+        System.out.println("SegmentedLruMemoryCacheTest passed");
+    }
+
+    /**
+     * Every value put is either still cached or was handed to entryRemoved exactly once.
+     */
+    private static void testConcurrentAccounting(String name, final MemoryCache<Integer, String> cache,
+                                                 AtomicInteger released) throws Exception {
+        final AtomicInteger puts = new AtomicInteger();
+        run(cache, 100000, puts);
+
+        Map<Integer, String> snapshot = cache.snapshot();
+        check(cache.size() <= cache.maxSize(), name + " size " + cache.size() + " over " + cache.maxSize());
+        check(snapshot.size() == cache.size(), name + " snapshot " + snapshot.size() + ", size " + cache.size());
+        for (Map.Entry<Integer, String> entry : snapshot.entrySet()) {
+            check(value(entry.getKey()).equals(entry.getValue()), name + " key " + entry.getKey());
+        }
+        check(puts.get() == released.get() + cache.size(), name + " put " + puts.get() + ", released "
+                + released.get() + ", cached " + cache.size());
+    }
+
+    /**
+     * After reading half of a full cache, new entries should mostly push out the other half.
+     */
+    private static void testApproximateLru() {
+        int maxSize = 800;
+        SegmentedLruMemoryCache<Integer, String> segmented = new SegmentedLruMemoryCache<Integer, String>(maxSize);
+        LruMemoryCache<Integer, String> lru = new LruMemoryCache<Integer, String>(maxSize);
+        fillReadAndOverflow(segmented, maxSize);
+        fillReadAndOverflow(lru, maxSize);
+
+        int segmentedKept = 0;
+        int lruKept = 0;
+        for (int i = 0; i < maxSize / 2; i++) {
+            if (segmented.containsKey(i)) segmentedKept++;
+            if (lru.containsKey(i)) lruKept++;
+        }
+        System.out.println("recently read entries kept: segmented " + segmentedKept + ", LRU " + lruKept
+                + " of " + maxSize / 2);
+        check(lruKept == maxSize / 2, "LRU evicted a recently read entry");
+        check(segmentedKept >= maxSize / 2 * 9 / 10, "segmented kept only " + segmentedKept);
+    }
+
+    private static void fillReadAndOverflow(MemoryCache<Integer, String> cache, int maxSize) {
+        for (int i = 0; i < maxSize; i++) {
+            cache.put(i, value(i));
+        }
+        for (int i = 0; i < maxSize / 2; i++) {
+            cache.get(i);
+        }
+        for (int i = maxSize; i < maxSize * 3 / 2; i++) {
+            cache.put(i, value(i));
+        }
+    }
+
+    /**
+     * Entries that expire and are never read again leave the cache through the sweep.
+     */
+    private static void testSweepExpired() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger();
+        SegmentedLruMemoryCache<Integer, String> cache = new SegmentedLruMemoryCache<Integer, String>(100000) {
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, String oldValue, String newValue) {
+                check(!evicted && newValue == null, "expired entry " + key + " removed as evicted or replaced");
+                expired.incrementAndGet();
+            }
+        };
+        long expiry = System.currentTimeMillis() + 50;
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, value(i), expiry);
+        }
+        Thread.sleep(100);
+
+        // one segment is swept every 64 puts, 8 sweeps visit all of the default 8 segments
+        for (int i = 1000; i < 1000 + 64 * 8; i++) {
+            cache.put(i, value(i));
+        }
+        check(expired.get() == 1000, "swept " + expired.get() + " of 1000 expired entries");
+        check(cache.size() == 64 * 8, "size after the sweep " + cache.size());
+    }
+
+    private static void testThroughput() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            long segmented = run(new SegmentedLruMemoryCache<Integer, String>(MAX_SIZE), 400000, new AtomicInteger());
+            long lru = run(new LruMemoryCache<Integer, String>(MAX_SIZE), 400000, new AtomicInteger());
+            if (round == 1) {
+                System.out.println(THREADS + " threads on " + Runtime.getRuntime().availableProcessors()
+                        + " cpus, 400000 operations: segmented " + segmented + "ms, LRU " + lru + "ms");
+            }
+        }
+    }
+
+    /**
+     * Threads doing 80% gets, 15% puts and 5% removes over KEYS keys, skewed towards low keys.
+     *
+     * @return the time taken in milliseconds.
+     */
+    private static long run(final MemoryCache<Integer, String> cache, final int operations, final AtomicInteger puts)
+            throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations / THREADS; i++) {
+                            int key = (int) (KEYS * Math.pow(random.nextDouble(), 2));
+                            int op = random.nextInt(100);
+                            if (op < 80) {
+                                String value = cache.get(key);
+                                check(value == null || value(key).equals(value), "key " + key + " read " + value);
+                            } else if (op < 95) {
+                                cache.put(key, value(key));
+                                puts.incrementAndGet();
+                            } else {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private static String value(int key) {
+        return "value" + key;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static class CountingSegmentedCache extends SegmentedLruMemoryCache<Integer, String> {
+        private final AtomicInteger released = new AtomicInteger();
+
+        private CountingSegmentedCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, String oldValue, String newValue) {
+            released.incrementAndGet();
+        }
+    }
+
+    private static class CountingLruCache extends LruMemoryCache<Integer, String> {
+        private final AtomicInteger released = new AtomicInteger();
+
+        private CountingLruCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, String oldValue, String newValue) {
+            released.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Drives {@link TimerWheel} with random schedules, deschedules and advances and compares what
+ * it expires with a plain set of the scheduled entries.
+ * <p/>
+ * An entry may expire up to one level 0 bucket late, never early, and never twice.
+ * <pre>
+ * javac -d out -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/util/core/TimerWheelTest.java
+ * java -cp out com.lidroid.xutils.util.core.TimerWheelTest
+ * </pre>
+ */
+public class TimerWheelTest {
+
+    // span of a level 0 bucket
+    private static final long TICK = 1 << 10;
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    public static void main(String[] args) {
+        testNeverExpires();
+        testDescheduled();
+        for (int seed = 0; seed < 20; seed++) {
+            testRandom(new Random(seed));
+        }
+        System.out.println("TimerWheelTest passed");
+    }
+
+    private static void testNeverExpires() {
+        long now = 1400000000000L;
+        TimerWheel<String, String> wheel = new TimerWheel<String, String>(now);
+        wheel.schedule(new TimerWheel.Entry<String, String>("k", "v", 1, Long.MAX_VALUE));
+        check(wheel.isEmpty(), "an entry without expiry is not scheduled");
+
+        List<TimerWheel.Entry<String, String>> expired = new ArrayList<TimerWheel.Entry<String, String>>();
+        wheel.advance(now + 1000 * DAY, expired);
+        check(expired.isEmpty(), "expired an entry without expiry");
+    }
+
+    private static void testDescheduled() {
+        long now = 1400000000000L;
+        TimerWheel<String, String> wheel = new TimerWheel<String, String>(now);
+        TimerWheel.Entry<String, String> entry = new TimerWheel.Entry<String, String>("k", "v", 1, now + MINUTE);
+        wheel.schedule(entry);
+        check(!wheel.isEmpty(), "scheduled");
+        wheel.deschedule(entry);
+        check(wheel.isEmpty(), "descheduled");
+        // twice is harmless, like removing an entry that already expired
+        wheel.deschedule(entry);
+        check(wheel.isEmpty(), "descheduled twice");
+
+        List<TimerWheel.Entry<String, String>> expired = new ArrayList<TimerWheel.Entry<String, String>>();
+        wheel.advance(now + HOUR, expired);
+        check(expired.isEmpty(), "expired a descheduled entry");
+    }
+
+    private static void testRandom(Random random) {
+        long now = 1400000000000L + random.nextInt(1 << 30);
+        TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(now);
+        Set<TimerWheel.Entry<Integer, Integer>> scheduled = new HashSet<TimerWheel.Entry<Integer, Integer>>();
+        List<TimerWheel.Entry<Integer, Integer>> expired = new ArrayList<TimerWheel.Entry<Integer, Integer>>();
+        int nextKey = 0;
+
+        for (int step = 0; step < 2000; step++) {
+            int entries = random.nextInt(20);
+            for (int i = 0; i < entries; i++) {
+                TimerWheel.Entry<Integer, Integer> entry = new TimerWheel.Entry<Integer, Integer>(nextKey, nextKey, 1,
+                        now + randomDuration(random));
+                nextKey++;
+                wheel.schedule(entry);
+                scheduled.add(entry);
+            }
+
+            // remove a few, like a put replacing a value
+            if (!scheduled.isEmpty() && random.nextInt(4) == 0) {
+                TimerWheel.Entry<Integer, Integer> entry = scheduled.iterator().next();
+                wheel.deschedule(entry);
+                scheduled.remove(entry);
+            }
+
+            now += randomDuration(random) / (1 + random.nextInt(100));
+            expired.clear();
+            wheel.advance(now, expired);
+            for (TimerWheel.Entry<Integer, Integer> entry : expired) {
+                check(entry.expiryTimestamp <= now, "key " + entry.key + " expired "
+                        + (entry.expiryTimestamp - now) + "ms early");
+                check(scheduled.remove(entry), "key " + entry.key + " expired twice or after deschedule");
+            }
+            for (TimerWheel.Entry<Integer, Integer> entry : scheduled) {
+                check(now - entry.expiryTimestamp < TICK, "key " + entry.key + " is "
+                        + (now - entry.expiryTimestamp) + "ms overdue");
+            }
+            check(wheel.isEmpty() == scheduled.isEmpty(), "count of scheduled entries");
+        }
+
+        // everything left expires once the furthest expiry has passed
+        long last = now;
+        for (TimerWheel.Entry<Integer, Integer> entry : scheduled) {
+            last = Math.max(last, entry.expiryTimestamp);
+        }
+        expired.clear();
+        wheel.advance(last + TICK, expired);
+        check(expired.size() == scheduled.size(), "expired " + expired.size() + " of " + scheduled.size());
+        check(wheel.isEmpty(), "wheel empty at the end");
+    }
+
+    /**
+     * Durations reaching every level of the wheel and the overflow.
+     */
+    private static long randomDuration(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return random.nextInt((int) TICK);
+            case 1:
+                return random.nextInt((int) MINUTE);
+            case 2:
+                return random.nextInt((int) HOUR);
+            case 3:
+                return (long) (random.nextDouble() * DAY);
+            case 4:
+                return (long) (random.nextDouble() * 30 * DAY);
+            default:
+                return (long) (random.nextDouble() * 1000 * DAY);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
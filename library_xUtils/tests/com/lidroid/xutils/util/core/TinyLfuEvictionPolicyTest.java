@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2013. wyouflf (wyouflf@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lidroid.xutils.util.core;
+
+import com.lidroid.xutils.util.LogUtils;
+
+import java.util.Random;
+
+/**
+ * Checks the admission of {@link TinyLfuEvictionPolicy} and replays a trace through an LRU and a
+ * W-TinyLFU {@link LruMemoryCache} to compare their hit ratios.
+ * <p/>
+ * Runs on a plain JVM. android.jar is only needed to compile LogUtils, logging is turned off:
+ * <pre>
+ * javac -d out -cp android.jar -sourcepath library_xUtils/src \
+ *     library_xUtils/tests/com/lidroid/xutils/util/core/TinyLfuEvictionPolicyTest.java
+ * java -cp out com.lidroid.xutils.util.core.TinyLfuEvictionPolicyTest
+ * </pre>
+ */
+public class TinyLfuEvictionPolicyTest {
+
+    public static void main(String[] args) {
+        LogUtils.allowD = false;
+        LogUtils.allowE = false;
+        LogUtils.allowW = false;
+
+        testFillsMainWithoutEviction();
+        testCandidateDuelsProbationVictim();
+        testScanKeepsFrequentEntries();
+        testTraceReplay();
+        System.out.println("TinyLfuEvictionPolicyTest passed");
+    }
+
+    /**
+     * Entries leaving the window go into the empty main space instead of being evicted.
+     */
+    private static void testFillsMainWithoutEviction() {
+        LruMemoryCache<String, String> cache = newTinyLfuCache(100, 100);
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, "v");
+        }
+        check(cache.evictionCount() == 0, "evicted while filling: " + cache.evictionCount());
+        for (int i = 0; i < 100; i++) {
+            check(cache.containsKey("k" + i), "k" + i + " evicted while filling");
+        }
+    }
+
+    /**
+     * Window of 1, main space of 9, keys k0..k8 in probation and k9 in the window.
+     */
+    private static void testCandidateDuelsProbationVictim() {
+        TinyLfuEvictionPolicy<String> policy = new TinyLfuEvictionPolicy<String>(10, 100, 10);
+        for (int i = 0; i < 10; i++) {
+            policy.recordAdd("k" + i, 1);
+        }
+        check("k0".equals(policy.nextVictim()), "probation head is the victim while nothing waits");
+
+        // k0 stays the probation head, misses only count in the sketch
+        for (int i = 0; i < 3; i++) {
+            policy.recordMiss("k0");
+        }
+
+        // k9 leaves the window and waits, a hit on it must not move it into the main space
+        policy.recordAdd("n", 1);
+        policy.recordHit("k9");
+        check("k9".equals(policy.nextVictim()), "a candidate used less than the victim is rejected");
+        policy.recordRemove("k9");
+
+        // n leaves the window and is used more often than k0
+        policy.recordAdd("m", 1);
+        for (int i = 0; i < 4; i++) {
+            policy.recordHit("n");
+        }
+        check("k0".equals(policy.nextVictim()), "a candidate used more than the victim is admitted");
+        policy.recordRemove("k0");
+        check("k1".equals(policy.nextVictim()), "nothing waits after the admission");
+
+        // once the main space has room again, a candidate moves in without a duel
+        policy.recordRemove("k1");
+        policy.recordRemove("k2");
+        policy.recordAdd("o", 1);
+        policy.recordAdd("p", 1);
+        check("k3".equals(policy.nextVictim()), "candidates admitted into free main space");
+    }
+
+    /**
+     * A one-off scan much larger than the cache does not flush entries that are used often.
+     */
+    private static void testScanKeepsFrequentEntries() {
+        LruMemoryCache<String, String> cache = newTinyLfuCache(100, 100);
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot" + i, "v");
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "v");
+        }
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.containsKey("hot" + i)) {
+                kept++;
+            }
+        }
+        check(cache.size() <= cache.maxSize(), "size " + cache.size() + " over " + cache.maxSize());
+        check(kept >= 95, "only " + kept + " of 100 frequent entries survived the scan");
+    }
+
+    /**
+     * Zipf distributed gets interleaved with scans of keys that are never used again. Missed keys
+     * are put like the image loader does after a decode.
+     */
+    private static void testTraceReplay() {
+        int[] trace = createTrace(new Random(42), 10000, 200000);
+        int cacheSize = 500;
+
+        LruMemoryCache<Integer, Integer> lru = new LruMemoryCache<Integer, Integer>(cacheSize);
+        LruMemoryCache<Integer, Integer> tinyLfu = new LruMemoryCache<Integer, Integer>(cacheSize,
+                new TinyLfuEvictionPolicy<Integer>(cacheSize, cacheSize));
+        double lruRatio = replay(lru, trace);
+        double tinyLfuRatio = replay(tinyLfu, trace);
+
+        System.out.println(String.format("trace replay, %d requests, cache of %d: LRU %.1f%%, W-TinyLFU %.1f%%",
+                trace.length, cacheSize, lruRatio * 100, tinyLfuRatio * 100));
+        check(tinyLfu.size() <= cacheSize, "W-TinyLFU cache over size: " + tinyLfu.size());
+        check(tinyLfuRatio > lruRatio, "W-TinyLFU does not beat LRU");
+    }
+
+    private static int[] createTrace(Random random, int keyCount, int length) {
+        // cumulative Zipf(0.9) weights
+        double[] cumulative = new double[keyCount];
+        double sum = 0;
+        for (int i = 0; i < keyCount; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+
+        int[] trace = new int[length];
+        int scanKey = keyCount;
+        int i = 0;
+        while (i < length) {
+            if (random.nextInt(100) < 5) {
+                // a fling through an album, every key is new
+                for (int j = 0; j < 300 && i < length; j++) {
+                    trace[i++] = scanKey++;
+                }
+            } else {
+                for (int j = 0; j < 100 && i < length; j++) {
+                    trace[i++] = zipfKey(cumulative, random.nextDouble() * sum);
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static int zipfKey(double[] cumulative, double value) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double replay(LruMemoryCache<Integer, Integer> cache, int[] trace) {
+        for (int key : trace) {
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+        return (double) cache.hitCount() / trace.length;
+    }
+
+    private static LruMemoryCache<String, String> newTinyLfuCache(int maxSize, int expectedEntries) {
+        return new LruMemoryCache<String, String>(maxSize,
+                new TinyLfuEvictionPolicy<String>(maxSize, expectedEntries));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}